@@ -0,0 +1,446 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+
+// Java
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput and latency benchmarks for the reader to consumer pipeline. A synthetic
+ * source stands in for the server, so no mongod is needed. Run with "ant bench" and
+ * set the parameters with bench.* properties (see the defaults below), e.g.:
+ *
+ * ant bench -Dbench.scenarios=handoff -Dbench.consumers=1,4 -Dbench.docSizes=512
+ *
+ * Each configuration is run bench.warmups times, then bench.iterations times, and
+ * the median is reported.
+ */
+public final class PipelineBenchmarks {
+
+    /**
+     * The reader decodes batches and puts the docs in the prefetch buffer, the
+     * consumers take one doc at a time (nextDoc).
+     */
+    private Result handoff(final int pDocSize, final int pConsumers, final boolean pBatch) throws Exception {
+        final LatencyRecorder latency = new LatencyRecorder();
+        final DocRingBuffer<DBObject> buffer = new DocRingBuffer<DBObject>(_prefetch, 0, _waitStrategy, latency);
+        final AtomicLong consumed = new AtomicLong(0);
+        final CountDownLatch done = new CountDownLatch(pConsumers);
+
+        for (int idx=0; idx < pConsumers; idx++) {
+            final Thread consumer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final List<DBObject> docs = new ArrayList<DBObject>(CONSUMER_BATCH);
+                    long count = 0;
+                    try {
+                        while (true) {
+                            if (!pBatch) { if (buffer.take() != null) count++; continue; }
+
+                            // The same calls as nextDocs.
+                            final DBObject first = buffer.poll(1, TimeUnit.SECONDS);
+                            if (first == null) continue;
+                            docs.add(first);
+                            count += 1 + buffer.drainTo(docs, CONSUMER_BATCH - 1);
+                            docs.clear();
+                        }
+                    } catch (final InterruptedException ie) { consumed.addAndGet(count); done.countDown(); }
+                }
+            }, "BenchConsumer-" + idx);
+            consumer.setDaemon(true);
+            consumer.start();
+        }
+
+        final SyntheticDocSource source = new SyntheticDocSource(_docs, pDocSize, _batchSize, _rate, _rawDocs);
+        final List<DBObject> batch = new ArrayList<DBObject>(_batchSize);
+
+        final long start = System.nanoTime();
+
+        while (source.nextBatch(batch) > 0) {
+            for (int idx=0; idx < batch.size(); idx++) buffer.put(batch.get(idx), 0);
+            batch.clear();
+        }
+
+        buffer.close();
+        done.await();
+
+        final long elapsed = System.nanoTime() - start;
+
+        if (consumed.get() != _docs) throw new IllegalStateException("Counts off - expected: " + _docs + " - actual: " + consumed.get());
+
+        return new Result(elapsed, source.getDocSize(), buffer.getPutWaitNanos(), latency.snapshot());
+    }
+
+    /**
+     * The reader decodes batches and hands the docs to the dispatch threads, which
+     * call the doc listener.
+     */
+    private Result dispatch(final int pDocSize, final int pThreads) throws Exception {
+        final AtomicLong handled = new AtomicLong(0);
+        final CountDownLatch done = new CountDownLatch(1);
+        final LatencyRecorder latency = new LatencyRecorder();
+
+        final TailableCursorOptions options = new TailableCursorOptions("mongodb://127.0.0.1:27017", "bench", "bench");
+        options.setDispatchThreads(pThreads);
+        options.setDispatchQueueSize(_prefetch);
+        options.setDocListener(new TailableCursorDocListener() {
+            @Override
+            public void nextDoc(final DBObject pDoc) { if (handled.incrementAndGet() == _docs) done.countDown(); }
+        });
+
+        final DocDispatcher dispatcher = new DocDispatcher(new DocDispatcher.Owner() {
+            @Override
+            public void acknowledge(final DBObject pDoc) { }
+            @Override
+            public void handled(final DBObject pDoc) { }
+            @Override
+            public boolean reportException(final Throwable pT) { pT.printStackTrace(); return false; }
+            @Override
+            public long listenerStart() { return System.nanoTime(); }
+            @Override
+            public void listenerDone(final long pStart) { latency.record(System.nanoTime() - pStart); }
+        }, options);
+
+        dispatcher.start();
+
+        final SyntheticDocSource source = new SyntheticDocSource(_docs, pDocSize, _batchSize, _rate, _rawDocs);
+        final List<DBObject> batch = new ArrayList<DBObject>(_batchSize);
+
+        final long start = System.nanoTime();
+
+        while (source.nextBatch(batch) > 0) {
+            for (int idx=0; idx < batch.size(); idx++) dispatcher.dispatch(batch.get(idx));
+            batch.clear();
+        }
+
+        done.await();
+
+        final long elapsed = System.nanoTime() - start;
+        dispatcher.shutdown();
+
+        return new Result(elapsed, source.getDocSize(), 0, latency.snapshot());
+    }
+
+    /**
+     * The whole cursor: a writer inserts into an in-memory capped collection, the
+     * cursor reader tails it and the consumers call nextDoc.
+     */
+    private Result cursor(final int pDocSize, final int pConsumers) throws Exception {
+        final MemoryTailSource memory = new MemoryTailSource();
+        memory.createCollection("bench", "bench", (int)_docs);
+
+        final TailableCursorOptions options = new TailableCursorOptions("mongodb://127.0.0.1:27017", "bench", "bench");
+        options.setPrefetchCount(_prefetch);
+        options.setWaitStrategy(_waitStrategy);
+        options.setResumeField(null); // the synthetic docs repeat their ids
+
+        final TailableCursor cursor = new TailableCursorImpl(options, memory);
+        final AtomicLong consumed = new AtomicLong(0);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        cursor.start();
+
+        for (int idx=0; idx < pConsumers; idx++) {
+            final Thread consumer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            cursor.nextDoc();
+                            if (consumed.incrementAndGet() == _docs) done.countDown();
+                        }
+                    } catch (final InterruptedException ie) { /* stopped */ }
+                }
+            }, "BenchConsumer-" + idx);
+            consumer.setDaemon(true);
+            consumer.start();
+        }
+
+        final SyntheticDocSource source = new SyntheticDocSource(_docs, pDocSize, _batchSize, _rate, _rawDocs);
+        final List<DBObject> batch = new ArrayList<DBObject>(_batchSize);
+
+        final long start = System.nanoTime();
+
+        while (source.nextBatch(batch) > 0) {
+            for (int idx=0; idx < batch.size(); idx++) memory.insert("bench", "bench", batch.get(idx));
+            batch.clear();
+        }
+
+        done.await();
+
+        final long elapsed = System.nanoTime() - start;
+        final TailableCursorMetrics metrics = cursor.getMetrics();
+        cursor.stop();
+        memory.close();
+
+        return new Result(elapsed, source.getDocSize(), metrics.getPutWaitNanos(), metrics.getHandoffLatency());
+    }
+
+    /**
+     * The cursor reader and nextDoc consumers on a source that hands out the same
+     * decoded docs over and over, so the bytes allocated are the pipeline's own. The
+     * reader and consumer threads are measured over the second half of the run (after
+     * the warm up). In steady state this should be zero bytes per doc.
+     */
+    private Result alloc(final int pDocSize, final int pConsumers) throws Exception {
+        final List<DBObject> docs = new ArrayList<DBObject>(_batchSize);
+        final SyntheticDocSource source = new SyntheticDocSource(_batchSize, pDocSize, _batchSize, 0, _rawDocs);
+        source.nextBatch(docs);
+
+        final List<Thread> threads = new ArrayList<Thread>();
+
+        final TailableCursorOptions options = new TailableCursorOptions("mongodb://127.0.0.1:27017", "bench", "bench");
+        options.setPrefetchCount(_prefetch);
+        options.setWaitStrategy(_waitStrategy);
+        options.setThreadFactory(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable pRunnable) {
+                final Thread thread = new Thread(pRunnable, "BenchReader");
+                thread.setDaemon(true);
+                threads.add(thread);
+                return thread;
+            }
+        });
+
+        final TailableCursor cursor = new TailableCursorImpl(options, new ReplaySource(docs.toArray(new DBObject[docs.size()]), _docs));
+        final AtomicLong consumed = new AtomicLong(0);
+        final CountDownLatch half = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        for (int idx=0; idx < pConsumers; idx++) {
+            final Thread consumer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            cursor.nextDoc();
+                            final long count = consumed.incrementAndGet();
+                            if (count == _docs / 2) half.countDown();
+                            if (count == _docs) done.countDown();
+                        }
+                    } catch (final InterruptedException ie) { /* stopped */ }
+                }
+            }, "BenchConsumer-" + idx);
+            consumer.setDaemon(true);
+            threads.add(consumer);
+        }
+
+        final long start = System.nanoTime();
+
+        cursor.start();
+        for (final Thread thread : threads) if (thread.getName().startsWith("BenchConsumer")) thread.start();
+
+        half.await();
+        final long startDocs = consumed.get();
+        final long startBytes = allocatedBytes(threads);
+
+        done.await();
+        final long endBytes = allocatedBytes(threads);
+        final long endDocs = consumed.get();
+
+        final long elapsed = System.nanoTime() - start;
+        final TailableCursorMetrics metrics = cursor.getMetrics();
+        cursor.stop();
+
+        return new Result(elapsed, source.getDocSize(), metrics.getPutWaitNanos(), metrics.getHandoffLatency(),
+                            ((double)(endBytes - startBytes)) / (endDocs - startDocs));
+    }
+
+    /**
+     * Returns the bytes allocated by the threads so far (a HotSpot extension).
+     */
+    private static long allocatedBytes(final List<Thread> pThreads) {
+        final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long bytes = 0;
+        for (final Thread thread : pThreads) bytes += Math.max(0, bean.getThreadAllocatedBytes(thread.getId()));
+        return bytes;
+    }
+
+    /**
+     * A source with one endless cursor that returns the docs in a loop until the count
+     * is reached.
+     */
+    private static final class ReplaySource implements TailSource {
+        @Override
+        public void verifyCollection(final TailableCursorOptions pOptions) { }
+
+        @Override
+        public TailSourceCursor open(   final TailableCursorOptions pOptions,
+                                        final DBObject pQuery,
+                                        final DBObject pFields,
+                                        final boolean pAwaitData)
+        {
+            return new TailSourceCursor() {
+                @Override
+                public boolean hasNext() { return _returned < _count; }
+                @Override
+                public DBObject next() { return _docs[(int)(_returned++ % _docs.length)]; }
+                @Override
+                public boolean isDead() { return false; }
+                @Override
+                public boolean endOfBatch() { return _returned % _docs.length == 0; }
+                @Override
+                public void close() { }
+            };
+        }
+
+        @Override
+        public DBObject findNewest(final TailableCursorOptions pOptions, final DBObject pFields) { return null; }
+        @Override
+        public DBObject findOldest(final TailableCursorOptions pOptions, final DBObject pFields) { return null; }
+        @Override
+        public long count(final TailableCursorOptions pOptions) { return _count; }
+        @Override
+        public void close() { }
+
+        private ReplaySource(final DBObject [] pDocs, final long pCount) {
+            _docs = pDocs;
+            _count = pCount;
+        }
+
+        private final DBObject [] _docs;
+        private final long _count;
+        private long _returned;
+    }
+
+    private Result run(final String pScenario, final int pDocSize, final int pConsumers) throws Exception {
+        if ("handoff".equals(pScenario)) return handoff(pDocSize, pConsumers, false);
+        if ("handoffBatch".equals(pScenario)) return handoff(pDocSize, pConsumers, true);
+        if ("dispatch".equals(pScenario)) return dispatch(pDocSize, pConsumers);
+        if ("cursor".equals(pScenario)) return cursor(pDocSize, pConsumers);
+        if ("alloc".equals(pScenario)) return alloc(pDocSize, pConsumers);
+        throw new IllegalArgumentException("Unknown scenario: " + pScenario);
+    }
+
+    private void runAll() throws Exception {
+        System.out.println( "docs: " + _docs + " - batch size: " + _batchSize + " - rate: " + ((_rate > 0) ? _rate + "/s" : "unlimited")
+                            + " - prefetch: " + _prefetch + " - wait strategy: " + _waitStrategy + " - raw docs: " + _rawDocs);
+
+        System.out.println(String.format(   "%-14s %8s %9s %14s %10s %12s %12s %10s %10s",
+                                            "scenario", "doc size", "consumers", "docs/s", "MB/s", "p50 (us)", "p99 (us)", "blocked %",
+                                            "alloc B/doc"));
+
+        for (final String scenario : _scenarios) {
+            for (final int docSize : _docSizes) {
+                for (final int consumers : _consumers) {
+                    for (int idx=0; idx < _warmups; idx++) run(scenario, docSize, consumers);
+
+                    final Result [] results = new Result[_iterations];
+                    for (int idx=0; idx < _iterations; idx++) results[idx] = run(scenario, docSize, consumers);
+
+                    Arrays.sort(results);
+                    final Result median = results[results.length / 2];
+
+                    System.out.println(String.format(   "%-14s %8d %9d %14.0f %10.1f %12.1f %12.1f %10.1f %10s",
+                                                        scenario,
+                                                        median._docSize,
+                                                        consumers,
+                                                        median.docsPerSecond(_docs),
+                                                        median.docsPerSecond(_docs) * median._docSize / (1024 * 1024),
+                                                        median._latency.getPercentileNanos(50) / 1000.0,
+                                                        median._latency.getPercentileNanos(99) / 1000.0,
+                                                        (median._putWaitNanos * 100.0) / median._elapsed,
+                                                        (median._allocPerDoc >= 0) ? String.format("%.1f", median._allocPerDoc) : "-"));
+                }
+            }
+        }
+    }
+
+    /**
+     * One run. Runs sort by elapsed time.
+     */
+    private static final class Result implements Comparable<Result> {
+
+        private double docsPerSecond(final long pDocs) { return (pDocs * 1000000000.0) / _elapsed; }
+
+        @Override
+        public int compareTo(final Result pOther) { return (_elapsed < pOther._elapsed) ? -1 : ((_elapsed == pOther._elapsed) ? 0 : 1); }
+
+        private Result(final long pElapsed, final int pDocSize, final long pPutWaitNanos, final TailableCursorHistogram pLatency)
+        { this(pElapsed, pDocSize, pPutWaitNanos, pLatency, -1); }
+
+        /**
+         * @param pAllocPerDoc The bytes the pipeline allocated per doc or -1 if not measured.
+         */
+        private Result( final long pElapsed,
+                        final int pDocSize,
+                        final long pPutWaitNanos,
+                        final TailableCursorHistogram pLatency,
+                        final double pAllocPerDoc)
+        {
+            _elapsed = pElapsed;
+            _docSize = pDocSize;
+            _putWaitNanos = pPutWaitNanos;
+            _latency = pLatency;
+            _allocPerDoc = pAllocPerDoc;
+        }
+
+        private final long _elapsed;
+        private final int _docSize;
+        private final long _putWaitNanos;
+        private final TailableCursorHistogram _latency;
+        private final double _allocPerDoc;
+    }
+
+    private static int [] ints(final String pName, final String pDefault) {
+        final String [] values = System.getProperty(pName, pDefault).split(",");
+        final int [] ints = new int[values.length];
+        for (int idx=0; idx < values.length; idx++) ints[idx] = Integer.parseInt(values[idx].trim());
+        return ints;
+    }
+
+    private PipelineBenchmarks() {
+        _scenarios = System.getProperty("bench.scenarios", "handoff,handoffBatch,dispatch,cursor,alloc").split(",");
+        _docSizes = ints("bench.docSizes", "256,4096");
+        _consumers = ints("bench.consumers", "1,2,4,8,16,32");
+        _docs = Long.getLong("bench.docs", 200000);
+        _batchSize = Integer.getInteger("bench.batchSize", 100);
+        _rate = Long.getLong("bench.rate", 0);
+        _prefetch = Integer.getInteger("bench.prefetch", 1000);
+        _waitStrategy = TailableCursorWaitStrategy.valueOf(System.getProperty("bench.waitStrategy", "BLOCKING"));
+        _rawDocs = Boolean.getBoolean("bench.rawDocs");
+        _warmups = Integer.getInteger("bench.warmups", 2);
+        _iterations = Integer.getInteger("bench.iterations", 5);
+    }
+
+    private final String [] _scenarios;
+    private final int [] _docSizes;
+    private final int [] _consumers;
+    private final long _docs;
+    private final int _batchSize;
+    private final long _rate;
+    private final int _prefetch;
+    private final TailableCursorWaitStrategy _waitStrategy;
+    private final boolean _rawDocs;
+    private final int _warmups;
+    private final int _iterations;
+
+    private static final int CONSUMER_BATCH = 100;
+
+    public static void main(final String [] pArgs) throws Exception { new PipelineBenchmarks().runAll(); }
+}
+
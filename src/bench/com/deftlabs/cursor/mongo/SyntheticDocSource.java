@@ -0,0 +1,121 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+import com.mongodb.DBDecoder;
+import com.mongodb.DBCollection;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DefaultDBDecoder;
+import org.bson.BSON;
+import org.bson.types.ObjectId;
+
+// Java
+import java.util.Date;
+import java.util.List;
+
+/**
+ * An in-process stand-in for the server side of a tailable cursor. The docs are
+ * encoded once up front and every batch is decoded from the BSON bytes, as the driver
+ * does with a reply, so the decode cost is part of the measurement. Batches can be
+ * paced to a target rate.
+ */
+final class SyntheticDocSource {
+
+    /**
+     * Decode the next batch into the list.
+     * @return The number of docs added (zero when the source is exhausted).
+     */
+    int nextBatch(final List<DBObject> pDocs) throws InterruptedException {
+        final int count = (int)Math.min(_batchSize, _docCount - _produced);
+        if (count <= 0) return 0;
+
+        pace(count);
+
+        for (int idx=0; idx < count; idx++) {
+            pDocs.add(_decoder.decode(_encoded[(int)(_produced % _encoded.length)], (DBCollection)null));
+            _produced++;
+        }
+
+        return count;
+    }
+
+    int getDocSize() { return _encoded[0].length; }
+
+    /**
+     * Sleep until the batch is due (if there is a target rate).
+     */
+    private void pace(final int pCount) throws InterruptedException {
+        if (_docsPerSecond <= 0) return;
+
+        if (_startTime == 0) _startTime = System.nanoTime();
+
+        final long due = _startTime + ((_produced + pCount) * 1000000000L) / _docsPerSecond;
+        final long wait = due - System.nanoTime();
+
+        if (wait > 0) Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+    }
+
+    /**
+     * Construct a new object.
+     * @param pDocCount The total number of docs to produce.
+     * @param pDocSize The approximate encoded size of each doc in bytes.
+     * @param pBatchSize The number of docs per batch (a getMore reply).
+     * @param pDocsPerSecond The target rate or zero for no limit.
+     * @param pRawDocs True to decode into raw docs.
+     */
+    SyntheticDocSource( final long pDocCount,
+                        final int pDocSize,
+                        final int pBatchSize,
+                        final long pDocsPerSecond,
+                        final boolean pRawDocs)
+    {
+        _docCount = pDocCount;
+        _batchSize = pBatchSize;
+        _docsPerSecond = pDocsPerSecond;
+        _decoder = (pRawDocs) ? RawDBDecoder.FACTORY.create() : new DefaultDBDecoder();
+
+        _encoded = new byte[DISTINCT_DOCS][];
+
+        for (int idx=0; idx < DISTINCT_DOCS; idx++) {
+            final BasicDBObject doc = new BasicDBObject("_id", new ObjectId());
+            doc.put("ts", new Date());
+            doc.put("seq", idx);
+
+            final int padding = Math.max(0, pDocSize - BSON.encode(doc).length - PAYLOAD_OVERHEAD);
+            final StringBuilder payload = new StringBuilder(padding);
+            for (int pos=0; pos < padding; pos++) payload.append((char)('a' + (pos % 26)));
+            doc.put("payload", payload.toString());
+
+            _encoded[idx] = BSON.encode(doc);
+        }
+    }
+
+    private final long _docCount;
+    private final int _batchSize;
+    private final long _docsPerSecond;
+    private final DBDecoder _decoder;
+    private final byte [][] _encoded;
+
+    private long _produced;
+    private long _startTime;
+
+    private static final int DISTINCT_DOCS = 1024;
+    private static final int PAYLOAD_OVERHEAD = 14; // type, "payload" key and string length/terminator
+}
+
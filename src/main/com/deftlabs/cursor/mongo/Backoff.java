@@ -0,0 +1,56 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Java
+import java.util.Random;
+
+/**
+ * The sleep between cursor passes. After a pass that read docs the next pass starts
+ * right away. Each pass without docs doubles the sleep, from the min up to the max, and
+ * the sleep is jittered between half and all of that value so idle readers do not
+ * query in lock step. If the min is not below the max, the sleep is always the max.
+ * This is only used by one reader at a time.
+ */
+final class Backoff {
+
+    /**
+     * Returns the time to sleep (in ms) before the next pass.
+     * @param pReadDocs True if the last pass read docs.
+     */
+    long next(final boolean pReadDocs) {
+        if (pReadDocs) { _current = 0; return 0; }
+
+        final long min = _options.getMinNoDocSleepTime();
+        final long max = _options.getNoDocSleepTime();
+
+        if (max <= 0) return 0;
+        if (min >= max) return max;
+
+        _current = (_current == 0) ? Math.max(1, min) : Math.min(max, _current * 2);
+
+        final long half = _current / 2;
+        return half + (long)(_random.nextDouble() * (_current - half + 1));
+    }
+
+    Backoff(final TailableCursorOptions pOptions) { _options = pOptions; }
+
+    private final TailableCursorOptions _options;
+    private final Random _random = new Random();
+    private long _current;
+}
+
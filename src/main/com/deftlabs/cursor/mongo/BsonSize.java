@@ -0,0 +1,71 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import org.bson.BSONObject;
+import org.bson.LazyBSONObject;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+import org.bson.types.BSONTimestamp;
+
+// Java
+import java.util.Date;
+
+/**
+ * Approximates the encoded size of a doc without encoding it. This is only
+ * used for the prefetch byte budget so it does not need to be exact.
+ */
+final class BsonSize {
+
+    /**
+     * Returns the approximate size of the doc in bytes.
+     */
+    static int estimate(final BSONObject pDoc) {
+        if (pDoc == null) return 0;
+
+        if (pDoc instanceof LazyBSONObject) return ((LazyBSONObject)pDoc).getBSONSize();
+
+        int size = DOC_OVERHEAD;
+
+        for (final String key : pDoc.keySet()) {
+            size += key.length() + ELEMENT_OVERHEAD;
+            size += valueSize(pDoc.get(key));
+        }
+
+        return size;
+    }
+
+    private static int valueSize(final Object pV) {
+        if (pV == null || pV instanceof Boolean) return 1;
+        if (pV instanceof String) return ((String)pV).length() + 5;
+        if (pV instanceof Integer) return 4;
+        if (pV instanceof Number || pV instanceof Date || pV instanceof BSONTimestamp) return 8;
+        if (pV instanceof ObjectId) return 12;
+        if (pV instanceof byte []) return ((byte [])pV).length + 5;
+        if (pV instanceof Binary) return ((Binary)pV).length() + 5;
+        if (pV instanceof BSONObject) return estimate((BSONObject)pV);
+        return UNKNOWN_VALUE_SIZE;
+    }
+
+    private BsonSize() { }
+
+    private static final int DOC_OVERHEAD = 5;
+    private static final int ELEMENT_OVERHEAD = 2;
+    private static final int UNKNOWN_VALUE_SIZE = 16;
+}
+
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+/**
+ * The checkpoint store interface. A checkpoint is the resume field value of the
+ * last doc handed to the consumers. The cursor loads it on start and saves it in
+ * the background, so a restarted process resumes where it left off. The position
+ * values are BSON values (ObjectId, BSONTimestamp, Date, numbers, etc).
+ */
+public interface CheckpointStore {
+
+    /**
+     * Returns the saved position or null if there is none.
+     * @param pKey The checkpoint key.
+     */
+    public Object load(final String pKey);
+
+    /**
+     * Save the position. This is called from a background thread.
+     * @param pKey The checkpoint key.
+     * @param pPosition The position.
+     */
+    public void save(final String pKey, final Object pPosition);
+
+    /**
+     * Release any resources held by the store.
+     */
+    public void close();
+}
+
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Java
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Saves the last acknowledged position in the background. Positions are group
+ * committed: the store is written when the doc count is reached or the interval
+ * passes, whichever comes first. Marking a position does not touch the store.
+ */
+final class Checkpointer implements Runnable {
+
+    /**
+     * Record the position of an acknowledged doc.
+     */
+    void mark(final Object pPosition) {
+        if (pPosition == null) return;
+        _position = pPosition;
+        if (_marked.incrementAndGet() % _docCount == 0) signal();
+    }
+
+    /**
+     * Save the latest position now (from the calling thread).
+     */
+    void flush() {
+        final Object position = _position;
+        synchronized (this) {
+            if (position == null || position == _saved) return;
+            _store.save(_key, position);
+            _saved = position;
+        }
+    }
+
+    void start() { _thread.start(); }
+
+    /**
+     * Stop the background thread and save the latest position.
+     */
+    void shutdown() {
+        _running = false;
+        signal();
+        try { _thread.join(); } catch (final InterruptedException ie) { Thread.currentThread().interrupt(); }
+        flush();
+    }
+
+    @Override
+    public void run() {
+        while (_running) {
+            _lock.lock();
+            try {
+                if (_running) _signal.await(_interval, TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException ie) { break;
+            } finally { _lock.unlock(); }
+
+            try { flush();
+            } catch (final Throwable t) { _logger.log(Level.SEVERE, "Unable to save checkpoint - key: " + _key, t); }
+        }
+    }
+
+    private void signal() {
+        _lock.lock();
+        try { _signal.signal();
+        } finally { _lock.unlock(); }
+    }
+
+    Checkpointer(final TailableCursorOptions pOptions) {
+        _store = pOptions.getCheckpointStore();
+        _key = pOptions.getCheckpointKey();
+        _interval = pOptions.getCheckpointInterval();
+        _docCount = pOptions.getCheckpointDocCount();
+        _thread = pOptions.newThread(this, "TailableCursorCheckpointer-" + _key, true);
+    }
+
+    private final CheckpointStore _store;
+    private final String _key;
+    private final long _interval;
+    private final int _docCount;
+    private final Thread _thread;
+
+    private volatile Object _position;
+    private Object _saved;
+    private volatile boolean _running = true;
+    private final AtomicLong _marked = new AtomicLong(0);
+
+    private final ReentrantLock _lock = new ReentrantLock();
+    private final Condition _signal = _lock.newCondition();
+
+    private final Logger _logger = Logger.getLogger("com.deftlabs.cursor.mongo.TailableCursor");
+}
+
@@ -0,0 +1,224 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+import org.bson.BSONObject;
+import org.bson.types.Binary;
+import org.bson.types.Symbol;
+import org.bson.types.ObjectId;
+import org.bson.types.BSONTimestamp;
+
+// Java
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Drops docs whose key was seen recently, so docs delivered again after a cursor is
+ * recreated or a partition is rewound do not reach the consumers twice. The window
+ * holds the most recent keys by count and, optionally, by age.
+ *
+ * Keys are stored as 64 bit fingerprints in an open addressing (linear probing) set
+ * with a ring that remembers the insert order for eviction. Both are allocated when
+ * the window is created, so adding a doc does not allocate. Two different keys with
+ * the same fingerprint are treated as one, which is very unlikely but possible.
+ *
+ * This is only used by the reader, so it is not thread safe.
+ */
+final class DedupWindow {
+
+    /**
+     * Record the doc's key.
+     * @return False if the key is already in the window (the doc is a duplicate).
+     */
+    boolean add(final DBObject pDoc) {
+        final Object key = (_keyExtractor != null) ? _keyExtractor.key(pDoc) : pDoc.get("_id");
+        if (key == null) return true;
+        return add(fingerprint(key), (_maxAge > 0) ? System.currentTimeMillis() : 0);
+    }
+
+    boolean add(final long pFingerprint, final long pNow) {
+        if (_maxAge > 0) expire(pNow);
+
+        if (find(pFingerprint) >= 0) return false;
+
+        if (_size == _ring.length) evict();
+
+        insert(pFingerprint);
+
+        final int tail = (_head + _size) % _ring.length;
+        _ring[tail] = pFingerprint;
+        _times[tail] = pNow;
+        _size++;
+        return true;
+    }
+
+    int size() { return _size; }
+
+    private void expire(final long pNow) { while (_size > 0 && pNow - _times[_head] > _maxAge) evict(); }
+
+    private void evict() {
+        remove(_ring[_head]);
+        _head = (_head + 1) % _ring.length;
+        _size--;
+    }
+
+    private int find(final long pFingerprint) {
+        for (int idx = home(pFingerprint); _table[idx] != EMPTY; idx = (idx + 1) & _mask) if (_table[idx] == pFingerprint) return idx;
+        return -1;
+    }
+
+    private void insert(final long pFingerprint) {
+        int idx = home(pFingerprint);
+        while (_table[idx] != EMPTY) idx = (idx + 1) & _mask;
+        _table[idx] = pFingerprint;
+    }
+
+    /**
+     * Remove with backward shift, so there are no tombstones: the entries after the
+     * hole that can move closer to their home slot are moved into it.
+     */
+    private void remove(final long pFingerprint) {
+        int hole = find(pFingerprint);
+        if (hole < 0) return;
+
+        int idx = hole;
+        while (true) {
+            idx = (idx + 1) & _mask;
+            if (_table[idx] == EMPTY) break;
+
+            final int home = home(_table[idx]);
+            final boolean stays = (hole <= idx) ? (hole < home && home <= idx) : (hole < home || home <= idx);
+            if (stays) continue;
+
+            _table[hole] = _table[idx];
+            hole = idx;
+        }
+
+        _table[hole] = EMPTY;
+    }
+
+    private int home(final long pFingerprint) { return (int)(pFingerprint ^ (pFingerprint >>> 32)) & _mask; }
+
+    /**
+     * Returns a 64 bit fingerprint of the key. Numbers with equal values (e.g., an int
+     * and a long) have the same fingerprint. Only embedded doc and array keys allocate.
+     * @throws TailableCursorException If the key type is not supported (its hashCode is
+     * only 32 bits or based on identity).
+     */
+    static long fingerprint(final Object pKey) {
+        final long bits;
+
+        if (pKey instanceof ObjectId) {
+            final ObjectId id = (ObjectId)pKey;
+            bits = mix(((long)id.getTimeSecond() << 32) | (id.getInc() & 0xffffffffL)) ^ id.getMachine();
+        } else if (pKey instanceof Integer || pKey instanceof Long || pKey instanceof Short || pKey instanceof Byte) {
+            bits = ((Number)pKey).longValue();
+        } else if (pKey instanceof Number) {
+            final double value = ((Number)pKey).doubleValue();
+            bits = (value == Math.rint(value) && Math.abs(value) < Long.MAX_VALUE) ? (long)value : Double.doubleToLongBits(value);
+        } else if (pKey instanceof String) {
+            bits = fnv(FNV_OFFSET, (String)pKey);
+        } else if (pKey instanceof UUID) {
+            bits = mix(((UUID)pKey).getMostSignificantBits()) ^ ((UUID)pKey).getLeastSignificantBits();
+        } else if (pKey instanceof Binary) {
+            bits = fnv((FNV_OFFSET ^ ((Binary)pKey).getType()) * FNV_PRIME, ((Binary)pKey).getData());
+        } else if (pKey instanceof byte[]) {
+            bits = fnv(FNV_OFFSET, (byte[])pKey);
+        } else if (pKey instanceof Boolean) {
+            bits = ((Boolean)pKey).booleanValue() ? TRUE_BITS : FALSE_BITS;
+        } else if (pKey instanceof Symbol) {
+            bits = fnv(SYMBOL_OFFSET, ((Symbol)pKey).getSymbol());
+        } else if (pKey instanceof BSONObject) {
+            // Embedded docs and arrays: every field name and value, in order.
+            final BSONObject doc = (BSONObject)pKey;
+            long hash = DOC_OFFSET;
+            for (final String field : doc.keySet()) hash = mix(fnv(hash, field) ^ fingerprint(doc.get(field)));
+            bits = hash;
+        } else if (pKey instanceof BSONTimestamp) {
+            bits = ((long)((BSONTimestamp)pKey).getTime() << 32) | (((BSONTimestamp)pKey).getInc() & 0xffffffffL);
+        } else if (pKey instanceof Date) {
+            bits = ((Date)pKey).getTime();
+        } else { throw new TailableCursorException("Unsupported dedup key type: " + pKey.getClass().getName()); }
+
+        final long fingerprint = mix(bits);
+        return (fingerprint == EMPTY) ? 1 : fingerprint;
+    }
+
+    private static long fnv(long pHash, final String pV) {
+        for (int idx=0; idx < pV.length(); idx++) pHash = (pHash ^ pV.charAt(idx)) * FNV_PRIME;
+        return pHash;
+    }
+
+    private static long fnv(long pHash, final byte [] pV) {
+        for (int idx=0; idx < pV.length; idx++) pHash = (pHash ^ (pV[idx] & 0xff)) * FNV_PRIME;
+        return pHash;
+    }
+
+    /**
+     * The murmur3 64 bit finalizer.
+     */
+    private static long mix(long pV) {
+        pV ^= pV >>> 33;
+        pV *= 0xff51afd7ed558ccdL;
+        pV ^= pV >>> 33;
+        pV *= 0xc4ceb9fe1a85ec53L;
+        pV ^= pV >>> 33;
+        return pV;
+    }
+
+    /**
+     * Construct a new object.
+     * @param pCapacity The maximum number of keys in the window.
+     * @param pMaxAge The maximum age of a key in the window in ms (zero for no limit).
+     * @param pKeyExtractor Returns the key of a doc (null for the _id).
+     */
+    DedupWindow(final int pCapacity, final long pMaxAge, final TailableCursorKeyExtractor pKeyExtractor) {
+        int tableSize = 2;
+        while (tableSize < pCapacity * 2) tableSize <<= 1;
+
+        _table = new long[tableSize];
+        _mask = tableSize - 1;
+        _ring = new long[pCapacity];
+        _times = new long[pCapacity];
+        _maxAge = pMaxAge;
+        _keyExtractor = pKeyExtractor;
+    }
+
+    private final long [] _table;
+    private final int _mask;
+    private final long [] _ring;
+    private final long [] _times;
+    private final long _maxAge;
+    private final TailableCursorKeyExtractor _keyExtractor;
+
+    private int _head;
+    private int _size;
+
+    private static final long EMPTY = 0;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // Seeds so keys of different types with the same contents do not collide.
+    private static final long SYMBOL_OFFSET = FNV_OFFSET ^ 0x5bd1e995L;
+    private static final long DOC_OFFSET = FNV_OFFSET ^ 0x1b873593L;
+    private static final long TRUE_BITS = 0x9e3779b97f4a7c15L;
+    private static final long FALSE_BITS = 0x632be59bd9b4e019L;
+}
+
@@ -0,0 +1,231 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+
+// Java
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fans docs out from the reader to a fixed set of threads that call the doc listener.
+ * Each thread has its own bounded queue. With a key extractor, docs with the same key
+ * always go to the same thread, so they are handled in order. Without one, docs go to
+ * the threads round robin.
+ *
+ * Docs can finish out of order, so a doc is only acknowledged (for the checkpoint) once
+ * every doc read before it has finished. The number of docs in flight is bounded by
+ * the total queue size plus the thread count.
+ */
+final class DocDispatcher {
+
+    /**
+     * Hand the doc to a dispatch thread. This is only called by the reader.
+     * @throws InterruptedException
+     */
+    void dispatch(final DBObject pDoc) throws InterruptedException {
+        // The key is taken before the slot is claimed, so an extractor that throws does
+        // not leave a slot that never completes (and holds back every later ack).
+        if (_keyExtractor != null) {
+            final Object key = _keyExtractor.key(pDoc);
+            final DocRingBuffer<Slot> queue = _queues[(key == null) ? 0 : index(key.hashCode())];
+            final Slot slot = claim(pDoc);
+            if (!queue.offer(slot, 0)) overflow(queue, slot);
+            return;
+        }
+
+        final Slot slot = claim(pDoc);
+
+        for (int idx=0; idx < _queues.length; idx++) if (_queues[next()].offer(slot, 0)) return;
+
+        overflow(_queues[next()], slot);
+    }
+
+    /**
+     * Returns true if every doc dispatched has been handled.
+     */
+    boolean isIdle() {
+        _lock.lock();
+        try { return _completed == _dispatched;
+        } finally { _lock.unlock(); }
+    }
+
+    /**
+     * Returns the number of docs dropped because a queue was full.
+     */
+    long getDroppedCount() { return _dropped.get(); }
+
+    void start() { for (final Thread worker : _workers) worker.start(); }
+
+    /**
+     * Stop the threads. Docs still in the queues are not passed to the listener.
+     */
+    void shutdown() {
+        for (final DocRingBuffer<Slot> queue : _queues) queue.close();
+        for (final Thread worker : _workers) worker.interrupt();
+    }
+
+    private void overflow(final DocRingBuffer<Slot> pQueue, final Slot pSlot) throws InterruptedException {
+        switch (_backpressure) {
+            case DROP: _dropped.incrementAndGet(); complete(pSlot); return;
+            case CALLER_RUNS: handle(pSlot); return;
+            default: pQueue.put(pSlot, 0);
+        }
+    }
+
+    private void handle(final Slot pSlot) {
+        try {
+            final long start = _owner.listenerStart();
+            _listener.nextDoc(pSlot._doc);
+            _owner.listenerDone(start);
+        } catch (final Throwable t) { _owner.reportException(t); }
+        complete(pSlot);
+    }
+
+    /**
+     * Wait until the in-flight window has room and fill the next slot.
+     */
+    private Slot claim(final DBObject pDoc) throws InterruptedException {
+        _lock.lockInterruptibly();
+        try {
+            while (_dispatched - _completed >= _window.length) _windowOpen.await();
+
+            final Slot slot = _window[(int)(_dispatched % _window.length)];
+            slot._doc = pDoc;
+            slot._done = false;
+            _dispatched++;
+            return slot;
+        } finally { _lock.unlock(); }
+    }
+
+    /**
+     * Mark the slot done and acknowledge the newest doc that has no unfinished docs
+     * before it. The docs it passes are reported as handled (under the lock, so in order).
+     */
+    private void complete(final Slot pSlot) {
+        DBObject acknowledged = null;
+
+        _lock.lock();
+        try {
+            pSlot._done = true;
+
+            while (_completed < _dispatched) {
+                final Slot head = _window[(int)(_completed % _window.length)];
+                if (!head._done) break;
+                if (acknowledged != null) _owner.handled(acknowledged);
+                acknowledged = head._doc;
+                head._doc = null;
+                _completed++;
+            }
+
+            if (acknowledged != null) _windowOpen.signal();
+        } finally { _lock.unlock(); }
+
+        if (acknowledged != null) _owner.acknowledge(acknowledged);
+    }
+
+    private int next() {
+        final int next = _next;
+        _next = (next + 1 == _queues.length) ? 0 : next + 1;
+        return next;
+    }
+
+    private int index(final int pHash) {
+        final int hash = pHash ^ (pHash >>> 16);
+        return (hash & Integer.MAX_VALUE) % _queues.length;
+    }
+
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            while (true) {
+                try { handle(_queue.take());
+                } catch (final InterruptedException ie) { break; }
+            }
+        }
+
+        private Worker(final DocRingBuffer<Slot> pQueue) { _queue = pQueue; }
+
+        private final DocRingBuffer<Slot> _queue;
+    }
+
+    /**
+     * The cursor side of the dispatcher.
+     */
+    interface Owner {
+        void acknowledge(final DBObject pDoc);
+        void handled(final DBObject pDoc);
+        boolean reportException(final Throwable pT);
+        long listenerStart();
+        void listenerDone(final long pStart);
+    }
+
+    /**
+     * The slots are allocated once and reused as the window moves.
+     */
+    private static final class Slot {
+        private DBObject _doc;
+        private boolean _done = true;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    DocDispatcher(final Owner pOwner, final TailableCursorOptions pOptions) {
+        _owner = pOwner;
+        _listener = pOptions.getDocListener();
+        _keyExtractor = pOptions.getDispatchKeyExtractor();
+        _backpressure = pOptions.getDispatchBackpressure();
+
+        final int threads = pOptions.getDispatchThreads();
+        final int queueSize = pOptions.getDispatchQueueSize();
+
+        _queues = new DocRingBuffer[threads];
+        _workers = new Thread[threads];
+
+        for (int idx=0; idx < threads; idx++) {
+            _queues[idx] = new DocRingBuffer<Slot>(queueSize, 0);
+            _workers[idx] = pOptions.newThread( new Worker(_queues[idx]),
+                                                "TailableCursorDispatcher-" + pOptions.getDatabaseName() + "."
+                                                + pOptions.getCollectionName() + "-" + idx,
+                                                true);
+        }
+
+        // Every queue full, every thread busy and one more doc on the reader.
+        _window = new Slot[(threads * _queues[0].capacity()) + threads + 1];
+        for (int idx=0; idx < _window.length; idx++) _window[idx] = new Slot();
+    }
+
+    private final Owner _owner;
+    private final TailableCursorDocListener _listener;
+    private final TailableCursorKeyExtractor _keyExtractor;
+    private final TailableCursorBackpressure _backpressure;
+
+    private final DocRingBuffer<Slot> [] _queues;
+    private final Thread [] _workers;
+    private int _next;
+
+    private final Slot [] _window;
+    private long _dispatched;
+    private long _completed;
+    private final AtomicLong _dropped = new AtomicLong(0);
+
+    private final ReentrantLock _lock = new ReentrantLock();
+    private final Condition _windowOpen = _lock.newCondition();
+}
+
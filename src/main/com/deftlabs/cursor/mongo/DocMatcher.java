@@ -0,0 +1,163 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+import com.mongodb.BasicDBObject;
+import org.bson.types.ObjectId;
+import org.bson.types.BSONTimestamp;
+
+// Java
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The small subset of the query language the in-memory source supports: top level
+ * fields compared by equality or $gt, $gte, $lt, $lte, $ne and $in (of values or
+ * patterns), combined with $and. That covers the resume and oplog filter queries the
+ * cursor builds.
+ */
+final class DocMatcher {
+
+    static boolean matches(final DBObject pQuery, final DBObject pDoc) {
+        for (final String key : pQuery.keySet()) {
+            final Object condition = pQuery.get(key);
+
+            if ("$and".equals(key)) {
+                for (final Object clause : (List<?>)condition) if (!matches((DBObject)clause, pDoc)) return false;
+                continue;
+            }
+
+            if (key.startsWith("$")) throw new TailableCursorException("Operator not supported by the memory source: " + key);
+
+            if (!matchesField(condition, pDoc.get(key))) return false;
+        }
+        return true;
+    }
+
+    private static boolean matchesField(final Object pCondition, final Object pValue) {
+        if (!(pCondition instanceof DBObject) || !isOperatorDoc((DBObject)pCondition)) return equal(pCondition, pValue);
+
+        final DBObject operators = (DBObject)pCondition;
+
+        for (final String op : operators.keySet()) {
+            final Object operand = operators.get(op);
+
+            if ("$ne".equals(op)) { if (equal(operand, pValue)) return false; continue; }
+
+            if ("$in".equals(op)) { if (!in((List<?>)operand, pValue)) return false; continue; }
+
+            if (pValue == null) return false;
+
+            final int cmp = compare(pValue, operand);
+
+            if ("$gt".equals(op)) { if (cmp <= 0) return false;
+            } else if ("$gte".equals(op)) { if (cmp < 0) return false;
+            } else if ("$lt".equals(op)) { if (cmp >= 0) return false;
+            } else if ("$lte".equals(op)) { if (cmp > 0) return false;
+            } else { throw new TailableCursorException("Operator not supported by the memory source: " + op); }
+        }
+
+        return true;
+    }
+
+    private static boolean in(final List<?> pValues, final Object pValue) {
+        for (final Object value : pValues) {
+            if (value instanceof Pattern) { if (pValue instanceof String && ((Pattern)value).matcher((String)pValue).find()) return true;
+            } else if (equal(value, pValue)) { return true; }
+        }
+        return false;
+    }
+
+    private static boolean isOperatorDoc(final DBObject pDoc) {
+        for (final String key : pDoc.keySet()) if (key.startsWith("$")) return true;
+        return false;
+    }
+
+    private static boolean equal(final Object pA, final Object pB) {
+        if (pA == null || pB == null) return pA == pB;
+        if (pA instanceof Number && pB instanceof Number) return compare(pA, pB) == 0;
+        return pA.equals(pB);
+    }
+
+    /**
+     * Compare two values of the same kind (numbers, strings, dates, object ids or
+     * timestamps).
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    static int compare(final Object pA, final Object pB) {
+        if (pA instanceof Number && pB instanceof Number) {
+            if (isIntegral(pA) && isIntegral(pB)) {
+                final long a = ((Number)pA).longValue();
+                final long b = ((Number)pB).longValue();
+                return (a < b) ? -1 : ((a == b) ? 0 : 1);
+            }
+            return Double.compare(((Number)pA).doubleValue(), ((Number)pB).doubleValue());
+        }
+
+        if (pA instanceof BSONTimestamp && pB instanceof BSONTimestamp) {
+            final BSONTimestamp a = (BSONTimestamp)pA;
+            final BSONTimestamp b = (BSONTimestamp)pB;
+            if (a.getTime() != b.getTime()) return (a.getTime() < b.getTime()) ? -1 : 1;
+            return (a.getInc() < b.getInc()) ? -1 : ((a.getInc() == b.getInc()) ? 0 : 1);
+        }
+
+        if ((pA instanceof String && pB instanceof String)
+            || (pA instanceof Date && pB instanceof Date)
+            || (pA instanceof ObjectId && pB instanceof ObjectId)) { return ((Comparable)pA).compareTo(pB); }
+
+        throw new TailableCursorException("Values can't be compared by the memory source: " + pA + " - " + pB);
+    }
+
+    private static boolean isIntegral(final Object pV)
+    { return pV instanceof Integer || pV instanceof Long || pV instanceof Short || pV instanceof Byte; }
+
+    /**
+     * Returns the doc with the projection applied (top level fields only).
+     */
+    static DBObject project(final DBObject pDoc, final DBObject pFields) {
+        if (pFields == null || pFields.keySet().isEmpty()) return pDoc;
+
+        boolean inclusive = false;
+        for (final String key : pFields.keySet()) if (!key.equals("_id") && isIncluded(pFields.get(key))) inclusive = true;
+
+        final BasicDBObject projected = new BasicDBObject();
+
+        for (final String key : pDoc.keySet()) {
+            final boolean listed = pFields.containsField(key);
+            final boolean keep;
+
+            if (key.equals("_id")) keep = !listed || isIncluded(pFields.get(key));
+            else keep = (inclusive) ? listed && isIncluded(pFields.get(key)) : !listed;
+
+            if (keep) projected.put(key, pDoc.get(key));
+        }
+
+        return projected;
+    }
+
+    private static boolean isIncluded(final Object pV) {
+        if (pV instanceof Boolean) return (Boolean)pV;
+        if (pV instanceof Number) return ((Number)pV).intValue() != 0;
+        return true;
+    }
+
+    private DocMatcher() { }
+}
+
@@ -0,0 +1,311 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Java
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The prefetch buffer that sits between the cursor reader and the consumers. This is
+ * a bounded multi-producer/multi-consumer ring: every slot has a sequence number and
+ * producers and consumers claim slots with a compare and set on their position, so
+ * there is no lock on the hot path. The slots are allocated once when the buffer is
+ * created.
+ *
+ * The reader only blocks when the buffer is full by count or, if a byte budget is set,
+ * by the approximate size of the buffered docs. How blocked threads wait is set by
+ * the wait strategy. With the blocking strategy the lock is only taken when a thread
+ * actually has to park.
+ */
+class DocRingBuffer<T> {
+
+    /**
+     * Add a doc to the buffer. This call blocks until there is room.
+     * @param pDoc The doc.
+     * @param pSize The approximate size of the doc in bytes (ignored if there is no byte budget).
+     * @throws InterruptedException If interrupted or the buffer is closed.
+     */
+    void put(final T pDoc, final int pSize) throws InterruptedException {
+        if (_closed) throw new InterruptedException();
+        if (offer(pDoc, pSize)) return;
+
+        final long start = System.nanoTime();
+        int spins = 0;
+        try {
+            while (true) {
+                if (_closed) throw new InterruptedException();
+                if (offer(pDoc, pSize)) return;
+                if (Thread.interrupted()) throw new InterruptedException();
+                spins = idle(spins, _notFull, _producersWaiting, pSize, false, 0);
+            }
+        } finally { _putWaitNanos.getAndAdd(System.nanoTime() - start); }
+    }
+
+    /**
+     * Add a doc to the buffer if there is room. This call does not block.
+     * @return False if the buffer is full or closed.
+     */
+    boolean offer(final T pDoc, final int pSize) {
+        if (_closed || isFull(pSize)) return false;
+
+        long pos = _tail.get();
+
+        while (true) {
+            final int idx = (int)(pos % _capacity);
+            final long seq = _sequences.get(idx);
+
+            if (seq == pos) {
+                if (_tail.compareAndSet(pos, pos + 1)) {
+                    _slots[idx] = pDoc;
+                    _sizes[idx] = pSize;
+                    if (_times != null) _times[idx] = System.nanoTime();
+                    if (_maxBytes > 0) _bytes.addAndGet(pSize);
+                    _sequences.set(idx, pos + 1);
+                    if (_consumersWaiting.get() > 0) signal(_notEmpty);
+                    return true;
+                }
+                pos = _tail.get();
+            } else if (seq < pos) { return false; // full
+            } else { pos = _tail.get(); }
+        }
+    }
+
+    /**
+     * Returns the next doc or null if the buffer is empty. This call does not block.
+     */
+    @SuppressWarnings("unchecked")
+    T poll() {
+        long pos = _head.get();
+
+        while (true) {
+            final int idx = (int)(pos % _capacity);
+            final long seq = _sequences.get(idx);
+
+            if (seq == pos + 1) {
+                if (_head.compareAndSet(pos, pos + 1)) {
+                    final T doc = (T)_slots[idx];
+                    _slots[idx] = null;
+                    final long stamp = (_times != null) ? _times[idx] : 0;
+                    if (_maxBytes > 0) _bytes.addAndGet(-_sizes[idx]);
+                    _sequences.set(idx, pos + _capacity);
+                    if (_producersWaiting.get() > 0) signal(_notFull);
+                    if (_times != null) _latency.record(System.nanoTime() - stamp);
+                    return doc;
+                }
+                pos = _head.get();
+            } else if (seq < pos + 1) { return null; // empty
+            } else { pos = _head.get(); }
+        }
+    }
+
+    /**
+     * Returns the next doc. This call blocks until a doc is available.
+     * @throws InterruptedException If interrupted or the buffer is closed and empty.
+     */
+    T take() throws InterruptedException { return poll(false, 0); }
+
+    /**
+     * Returns the next doc or null if the timeout expires first.
+     * @throws InterruptedException If interrupted or the buffer is closed and empty.
+     */
+    T poll(final long pTimeout, final TimeUnit pUnit) throws InterruptedException
+    { return poll(true, System.nanoTime() + pUnit.toNanos(pTimeout)); }
+
+    private T poll(final boolean pTimed, final long pDeadline) throws InterruptedException {
+        int spins = 0;
+        while (true) {
+            final T doc = poll();
+            if (doc != null) return doc;
+            if (_closed && size() == 0) throw new InterruptedException();
+            if (Thread.interrupted()) throw new InterruptedException();
+            if (pTimed && pDeadline - System.nanoTime() <= 0) return null;
+            spins = idle(spins, _notEmpty, _consumersWaiting, -1, pTimed, pDeadline);
+        }
+    }
+
+    /**
+     * Moves up to pMax docs into the list. This call does not block.
+     * @return The number of docs moved.
+     */
+    int drainTo(final List<? super T> pDocs, final int pMax) {
+        int drained = 0;
+        while (drained < pMax) {
+            final T doc = poll();
+            if (doc == null) break;
+            pDocs.add(doc);
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * Wake up all blocked callers. Blocked and future puts throw an InterruptedException,
+     * takes do once the buffer is empty.
+     */
+    void close() {
+        _closed = true;
+        signal(_notEmpty);
+        signal(_notFull);
+    }
+
+    boolean isClosed() { return _closed; }
+
+    /**
+     * Returns the number of docs in the buffer. This includes docs that are being
+     * added or removed at the time of the call.
+     */
+    int size() { return (int)Math.max(0, _tail.get() - _head.get()); }
+
+    int capacity() { return _capacity; }
+
+    /**
+     * Returns the total time puts have been blocked on a full buffer (in ns).
+     */
+    long getPutWaitNanos() { return _putWaitNanos.get(); }
+
+    boolean hasByteBudget() { return _maxBytes > 0; }
+
+    /**
+     * A single doc larger than the byte budget is still allowed in when the buffer
+     * is empty, otherwise the reader would never make progress.
+     */
+    private boolean isFull(final int pSize) {
+        if (_maxBytes <= 0) return false;
+        return _bytes.get() + pSize > _maxBytes && size() > 0;
+    }
+
+    /**
+     * Wait once, per the wait strategy, before the caller checks the buffer again.
+     * @param pPutSize The size of the doc being added or -1 for a consumer.
+     * @return The updated spin count.
+     */
+    private int idle(   final int pSpins,
+                        final Condition pCondition,
+                        final AtomicInteger pWaiting,
+                        final int pPutSize,
+                        final boolean pTimed,
+                        final long pDeadline) throws InterruptedException
+    {
+        switch (_waitStrategy) {
+            case BUSY_SPIN: return pSpins;
+            case YIELDING: if (pSpins < SPIN_TRIES) return pSpins + 1; Thread.yield(); return pSpins;
+            default: break;
+        }
+
+        _lock.lockInterruptibly();
+        try {
+            pWaiting.incrementAndGet();
+            try {
+                // Check again now that the waiter is visible to the other side.
+                if (_closed || ((pPutSize >= 0) ? !isBlockedPut(pPutSize) : size() > 0)) return pSpins;
+
+                if (!pTimed) { pCondition.await(); return pSpins; }
+
+                final long remaining = pDeadline - System.nanoTime();
+                if (remaining > 0) pCondition.awaitNanos(remaining);
+            } finally { pWaiting.decrementAndGet(); }
+        } finally { _lock.unlock(); }
+
+        return pSpins;
+    }
+
+    /**
+     * Wake the blocked consumers. A subclass that adds docs outside the ring calls this
+     * after they are visible to size().
+     */
+    void signalConsumers() { if (_consumersWaiting.get() > 0) signal(_notEmpty); }
+
+    private boolean isBlockedPut(final int pSize) { return size() >= _capacity || isFull(pSize); }
+
+    private void signal(final Condition pCondition) {
+        _lock.lock();
+        try { pCondition.signalAll();
+        } finally { _lock.unlock(); }
+    }
+
+    /**
+     * Construct a new object with the blocking wait strategy.
+     * @param pCapacity The maximum number of docs.
+     * @param pMaxBytes The approximate maximum number of bytes. Zero means no limit.
+     */
+    DocRingBuffer(final int pCapacity, final long pMaxBytes)
+    { this(pCapacity, pMaxBytes, TailableCursorWaitStrategy.BLOCKING); }
+
+    /**
+     * Construct a new object.
+     * @param pCapacity The maximum number of docs.
+     * @param pMaxBytes The approximate maximum number of bytes. Zero means no limit.
+     * @param pWaitStrategy How blocked callers wait.
+     */
+    DocRingBuffer(final int pCapacity, final long pMaxBytes, final TailableCursorWaitStrategy pWaitStrategy)
+    { this(pCapacity, pMaxBytes, pWaitStrategy, null); }
+
+    /**
+     * Construct a new object.
+     * @param pCapacity The maximum number of docs (at least two).
+     * @param pMaxBytes The approximate maximum number of bytes. Zero means no limit.
+     * @param pWaitStrategy How blocked callers wait.
+     * @param pLatency Records how long each doc was in the buffer (null to skip).
+     */
+    DocRingBuffer(  final int pCapacity,
+                    final long pMaxBytes,
+                    final TailableCursorWaitStrategy pWaitStrategy,
+                    final LatencyRecorder pLatency)
+    {
+        // A slot's sequence can't tell a full ring of one from an empty one, so one slot
+        // would let a put overwrite the doc before it. The ring has at least two.
+        _capacity = Math.max(pCapacity, 2);
+        _slots = new Object[_capacity];
+        _sizes = new int[_capacity];
+        _sequences = new AtomicLongArray(_capacity);
+        for (int idx=0; idx < _capacity; idx++) _sequences.set(idx, idx);
+        _maxBytes = pMaxBytes;
+        _waitStrategy = pWaitStrategy;
+        _latency = pLatency;
+        _times = (pLatency != null) ? new long[_capacity] : null;
+    }
+
+    private final int _capacity;
+    private final Object [] _slots;
+    private final int [] _sizes;
+    private final AtomicLongArray _sequences;
+    private final long _maxBytes;
+    private final TailableCursorWaitStrategy _waitStrategy;
+    private final LatencyRecorder _latency;
+    private final long [] _times;
+
+    private final AtomicLong _head = new AtomicLong(0);
+    private final AtomicLong _tail = new AtomicLong(0);
+    private final AtomicLong _bytes = new AtomicLong(0);
+    private final AtomicLong _putWaitNanos = new AtomicLong(0);
+    private volatile boolean _closed;
+
+    private final AtomicInteger _consumersWaiting = new AtomicInteger(0);
+    private final AtomicInteger _producersWaiting = new AtomicInteger(0);
+    private final ReentrantLock _lock = new ReentrantLock();
+    private final Condition _notFull = _lock.newCondition();
+    private final Condition _notEmpty = _lock.newCondition();
+
+    private static final int SPIN_TRIES = 100;
+}
+
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+
+// Java
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The nextDocAsync callers waiting on the buffer. Docs are handed to the waiters in
+ * order by whichever side comes second: the caller drains after it is added and the
+ * reader drains after it buffers a doc (only if there are waiters), so a doc is never
+ * left in the buffer while a waiter waits.
+ */
+final class DocWaiters {
+
+    void add(final TailableCursorFuture pWaiter) {
+        _lock.lock();
+        try { _waiters.add(pWaiter);
+        } finally { _lock.unlock(); }
+    }
+
+    /**
+     * @return False if the waiter has already been handed a doc (or failed).
+     */
+    boolean remove(final TailableCursorFuture pWaiter) {
+        _lock.lock();
+        try { return _waiters.remove(pWaiter);
+        } finally { _lock.unlock(); }
+    }
+
+    boolean hasWaiters() { return !_waiters.isEmpty(); }
+
+    /**
+     * Hand the buffered docs to the waiters.
+     */
+    void drain() {
+        while (true) {
+            final TailableCursorFuture waiter;
+            final DBObject doc;
+
+            _lock.lock();
+            try {
+                if (_waiters.isEmpty()) return;
+                if ((doc = _buffer.poll()) == null) return;
+                waiter = _waiters.poll();
+                _cursor.acknowledge(doc);
+            } finally { _lock.unlock(); }
+
+            waiter.complete(doc);
+        }
+    }
+
+    /**
+     * Fail all the waiters (the cursor has stopped).
+     */
+    void failAll(final Throwable pT) {
+        final List<TailableCursorFuture> waiters = new ArrayList<TailableCursorFuture>();
+
+        _lock.lock();
+        try {
+            TailableCursorFuture waiter;
+            while ((waiter = _waiters.poll()) != null) waiters.add(waiter);
+        } finally { _lock.unlock(); }
+
+        for (final TailableCursorFuture waiter : waiters) waiter.fail(pT);
+    }
+
+    DocWaiters(final TailableCursorImpl pCursor, final DocRingBuffer<DBObject> pBuffer) {
+        _cursor = pCursor;
+        _buffer = pBuffer;
+    }
+
+    private final TailableCursorImpl _cursor;
+    private final DocRingBuffer<DBObject> _buffer;
+    private final Queue<TailableCursorFuture> _waiters = new ConcurrentLinkedQueue<TailableCursorFuture>();
+    private final ReentrantLock _lock = new ReentrantLock();
+}
+
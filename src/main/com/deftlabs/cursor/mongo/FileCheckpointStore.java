@@ -0,0 +1,176 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import org.bson.BSON;
+import org.bson.BSONObject;
+import org.bson.BasicBSONObject;
+
+// Java
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.HashMap;
+
+/**
+ * A checkpoint store backed by an append-only file. Each save appends a small BSON
+ * record and forces it to disk. The file is compacted to one record per key when it
+ * grows past the compaction size. A torn record at the end of the file (from a crash
+ * mid-write) is discarded when the file is opened, whether it is cut short or its
+ * length was written but its body was not.
+ */
+public class FileCheckpointStore implements CheckpointStore {
+
+    @Override
+    public synchronized Object load(final String pKey) { return _positions.get(pKey); }
+
+    @Override
+    public synchronized void save(final String pKey, final Object pPosition) {
+        if (_channel == null) throw new TailableCursorException("Checkpoint store closed - file: " + _file);
+
+        _positions.put(pKey, pPosition);
+
+        try {
+            if (_channel.size() >= _compactionSize) compact();
+            else append(_channel, pKey, pPosition);
+            _channel.force(false);
+        } catch (final IOException ioe) {
+            throw new TailableCursorException("Unable to save checkpoint - file: " + _file, ioe);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (_channel == null) return;
+        try { _channel.close(); } catch (final IOException ioe) { /* nada */ }
+        _channel = null;
+    }
+
+    /**
+     * Rewrite the file with the latest position for each key.
+     */
+    private void compact() throws IOException {
+        final File tmp = new File(_file.getPath() + ".tmp");
+
+        final RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+        try {
+            out.setLength(0);
+            final FileChannel channel = out.getChannel();
+            for (final Map.Entry<String, Object> entry : _positions.entrySet()) append(channel, entry.getKey(), entry.getValue());
+            channel.force(true);
+        } finally { out.close(); }
+
+        _channel.close();
+
+        if (!tmp.renameTo(_file)) {
+            _file.delete();
+            if (!tmp.renameTo(_file)) throw new IOException("Unable to rename: " + tmp + " to: " + _file);
+        }
+
+        _channel = open();
+        _channel.position(_channel.size());
+    }
+
+    private static void append(final FileChannel pChannel, final String pKey, final Object pPosition) throws IOException {
+        final BasicBSONObject record = new BasicBSONObject(KEY_FIELD, pKey);
+        record.put(POSITION_FIELD, pPosition);
+
+        final ByteBuffer buffer = ByteBuffer.wrap(BSON.encode(record));
+        while (buffer.hasRemaining()) pChannel.write(buffer);
+    }
+
+    /**
+     * Read the records and truncate anything after the last record that decodes.
+     */
+    private void read() throws IOException {
+        final ByteBuffer lengthBuffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+
+        long position = 0;
+        final long size = _channel.size();
+
+        while (position + 4 <= size) {
+            lengthBuffer.clear();
+            _channel.read(lengthBuffer, position);
+
+            final int length = lengthBuffer.getInt(0);
+            if (length < 5 || position + length > size) break;
+
+            final ByteBuffer record = ByteBuffer.allocate(length);
+            while (record.hasRemaining()) if (_channel.read(record, position + record.position()) < 0) break;
+
+            final BSONObject doc = decode(record.array());
+            if (doc == null) break;
+
+            _positions.put((String)doc.get(KEY_FIELD), doc.get(POSITION_FIELD));
+            position += length;
+        }
+
+        if (position < size) _channel.truncate(position);
+        _channel.position(position);
+    }
+
+    /**
+     * Returns the record or null if it is not a whole record.
+     */
+    private static BSONObject decode(final byte [] pRecord) {
+        if (pRecord[pRecord.length - 1] != 0) return null;
+
+        try {
+            final BSONObject doc = BSON.decode(pRecord);
+            return (doc.get(KEY_FIELD) instanceof String && doc.containsField(POSITION_FIELD)) ? doc : null;
+        } catch (final RuntimeException re) { return null; }
+    }
+
+    private FileChannel open() throws IOException { return new RandomAccessFile(_file, "rw").getChannel(); }
+
+    /**
+     * Construct a new object. The default compaction size is 1 MB.
+     * @param pFile The checkpoint file. It is created if it does not exist.
+     */
+    public FileCheckpointStore(final File pFile) { this(pFile, 1048576); }
+
+    /**
+     * Construct a new object.
+     * @param pFile The checkpoint file. It is created if it does not exist.
+     * @param pCompactionSize The file size (in bytes) that triggers a compaction.
+     */
+    public FileCheckpointStore(final File pFile, final long pCompactionSize) {
+        _file = pFile;
+        _compactionSize = pCompactionSize;
+
+        try {
+            _channel = open();
+            read();
+        } catch (final IOException ioe) {
+            throw new TailableCursorException("Unable to open checkpoint file: " + _file, ioe);
+        }
+    }
+
+    private final File _file;
+    private final long _compactionSize;
+    private FileChannel _channel;
+    private final Map<String, Object> _positions = new HashMap<String, Object>();
+
+    private static final String KEY_FIELD = "k";
+    private static final String POSITION_FIELD = "p";
+}
+
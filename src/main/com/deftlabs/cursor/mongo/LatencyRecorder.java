@@ -0,0 +1,65 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Java
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with power of two buckets (bucket n counts values
+ * up to 2^n nanoseconds). The counts are striped by thread so consumers on different
+ * cores do not write to the same cache lines. The stripes are summed when a snapshot
+ * is taken.
+ */
+final class LatencyRecorder {
+
+    void record(final long pNanos) {
+        final int stripe = (int)(Thread.currentThread().getId() & _stripeMask) * STRIPE_WIDTH;
+        _values.getAndIncrement(stripe + bucket(pNanos));
+        _values.getAndAdd(stripe + SUM_INDEX, pNanos);
+    }
+
+    TailableCursorHistogram snapshot() {
+        final long [] buckets = new long[BUCKETS];
+        long sum = 0;
+
+        for (int stripe=0; stripe < _values.length(); stripe += STRIPE_WIDTH) {
+            for (int idx=0; idx < BUCKETS; idx++) buckets[idx] += _values.get(stripe + idx);
+            sum += _values.get(stripe + SUM_INDEX);
+        }
+
+        return new TailableCursorHistogram(buckets, sum);
+    }
+
+    static int bucket(final long pNanos) { return (pNanos <= 0) ? 0 : 64 - Long.numberOfLeadingZeros(pNanos); }
+
+    LatencyRecorder() {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() * 2 && stripes < MAX_STRIPES) stripes <<= 1;
+        _stripeMask = stripes - 1;
+        _values = new AtomicLongArray(stripes * STRIPE_WIDTH);
+    }
+
+    private final int _stripeMask;
+    private final AtomicLongArray _values;
+
+    static final int BUCKETS = 64;
+    private static final int SUM_INDEX = BUCKETS;
+    private static final int STRIPE_WIDTH = BUCKETS + 8; // the sum plus padding to a cache line
+    private static final int MAX_STRIPES = 64;
+}
+
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deftlabs.cursor.mongo;
+
+// Java
+import java.util.List;
+
+/**
+ * The lease store interface for consumer groups. Members register with a heartbeat
+ * and hold a lease on each partition they own. A lease or a membership that is not
+ * renewed before it expires is free to be taken, so the partitions of a dead member
+ * move to the live ones. A lease also holds the position of the last doc of the
+ * partition handed to the owner's consumers, so the next owner carries on from there.
+ *
+ * Expiry times are wall clock times, so the members' clocks must be roughly in sync
+ * (well within the lease time).
+ */
+public interface LeaseStore {
+
+    /**
+     * Register the member or extend its membership.
+     * @param pGroup The consumer group.
+     * @param pMember The member id.
+     * @param pTtl The time the membership lasts without another heartbeat (in ms).
+     */
+    public void heartbeat(final String pGroup, final String pMember, final long pTtl);
+
+    /**
+     * Returns the ids of the members whose membership has not expired, sorted.
+     */
+    public List<String> members(final String pGroup);
+
+    /**
+     * Remove the member from the group.
+     */
+    public void leave(final String pGroup, final String pMember);
+
+    /**
+     * Take the lease on the partition if it is free, expired or already held by the member.
+     * @return True if the member holds the lease.
+     */
+    public boolean acquire(final String pGroup, final int pPartition, final String pMember, final long pTtl);
+
+    /**
+     * Extend a lease held by the member and save the partition position.
+     * @param pPosition The position or null to keep the saved one.
+     * @return False if the member no longer holds the lease.
+     */
+    public boolean renew(   final String pGroup,
+                            final int pPartition,
+                            final String pMember,
+                            final long pTtl,
+                            final Object pPosition);
+
+    /**
+     * Give up a lease held by the member and save the partition position.
+     * @param pPosition The position or null to keep the saved one.
+     */
+    public void release(final String pGroup, final int pPartition, final String pMember, final Object pPosition);
+
+    /**
+     * Returns the saved position of the partition or null if there is none.
+     */
+    public Object position(final String pGroup, final int pPartition);
+
+    /**
+     * Release any resources held by the store.
+     */
+    public void close();
+}
+
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deftlabs.cursor.mongo;
+
+// Java
+import java.util.Map;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * A lease store in memory, for members in one process and for tests.
+ */
+public class MemoryLeaseStore implements LeaseStore {
+
+    @Override
+    public synchronized void heartbeat(final String pGroup, final String pMember, final long pTtl)
+    { _members.put(pGroup + MEMBER_SEPARATOR + pMember, System.currentTimeMillis() + pTtl); }
+
+    @Override
+    public synchronized List<String> members(final String pGroup) {
+        final long now = System.currentTimeMillis();
+        final String prefix = pGroup + MEMBER_SEPARATOR;
+        final List<String> members = new ArrayList<String>();
+
+        for (final Map.Entry<String, Long> entry : _members.entrySet()) {
+            if (entry.getKey().startsWith(prefix) && entry.getValue() > now) members.add(entry.getKey().substring(prefix.length()));
+        }
+
+        Collections.sort(members);
+        return members;
+    }
+
+    @Override
+    public synchronized void leave(final String pGroup, final String pMember) { _members.remove(pGroup + MEMBER_SEPARATOR + pMember); }
+
+    @Override
+    public synchronized boolean acquire(final String pGroup, final int pPartition, final String pMember, final long pTtl) {
+        final String key = pGroup + PARTITION_SEPARATOR + pPartition;
+        Lease lease = _leases.get(key);
+
+        if (lease == null) { lease = new Lease(); _leases.put(key, lease); }
+
+        if (lease._owner != null && !lease._owner.equals(pMember) && lease._expires > System.currentTimeMillis()) return false;
+
+        lease._owner = pMember;
+        lease._expires = System.currentTimeMillis() + pTtl;
+        return true;
+    }
+
+    @Override
+    public synchronized boolean renew(  final String pGroup,
+                                        final int pPartition,
+                                        final String pMember,
+                                        final long pTtl,
+                                        final Object pPosition)
+    {
+        final Lease lease = _leases.get(pGroup + PARTITION_SEPARATOR + pPartition);
+        if (lease == null || !pMember.equals(lease._owner)) return false;
+
+        lease._expires = System.currentTimeMillis() + pTtl;
+        if (pPosition != null) lease._position = pPosition;
+        return true;
+    }
+
+    @Override
+    public synchronized void release(final String pGroup, final int pPartition, final String pMember, final Object pPosition) {
+        final Lease lease = _leases.get(pGroup + PARTITION_SEPARATOR + pPartition);
+        if (lease == null || !pMember.equals(lease._owner)) return;
+
+        lease._owner = null;
+        lease._expires = 0;
+        if (pPosition != null) lease._position = pPosition;
+    }
+
+    @Override
+    public synchronized Object position(final String pGroup, final int pPartition) {
+        final Lease lease = _leases.get(pGroup + PARTITION_SEPARATOR + pPartition);
+        return (lease == null) ? null : lease._position;
+    }
+
+    @Override
+    public void close() { }
+
+    private static final class Lease {
+        private String _owner;
+        private long _expires;
+        private Object _position;
+    }
+
+    private final Map<String, Long> _members = new HashMap<String, Long>();
+    private final Map<String, Lease> _leases = new HashMap<String, Lease>();
+
+    private static final String MEMBER_SEPARATOR = "/member/";
+    private static final String PARTITION_SEPARATOR = "/partition/";
+}
+
@@ -0,0 +1,294 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+
+// Java
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An in-process stand-in for a server with capped collections. Each collection is a
+ * fixed size ring of docs that behaves like a capped collection read with a tailable
+ * cursor:
+ *
+ * - Cursors read in insert order. With await data hasNext blocks until a doc is
+ *   inserted or a second passes, as it does on the server. Otherwise it returns false
+ *   right away. Either way the cursor stays open.
+ * - Inserts overwrite the oldest doc once the ring is full. A cursor whose next
+ *   position was overwritten dies, as it does on the server.
+ * - A cursor opened on an empty collection is dead, as it is on the server.
+ * - killCursors kills the open cursors of a collection.
+ *
+ * Queries support top level equality and $gt/$gte/$lt/$lte/$ne with $and, and the
+ * projection supports top level fields. The raw docs and oplog replay flags are
+ * ignored. Docs are not copied, so the inserted and returned docs must not be changed.
+ */
+public class MemoryTailSource implements TailSource {
+
+    /**
+     * Create a capped collection that holds up to pMaxDocs docs. This does nothing if
+     * the collection exists.
+     */
+    public void createCollection(final String pDatabaseName, final String pCollectionName, final int pMaxDocs) {
+        if (pMaxDocs < 1) throw new TailableCursorException("Invalid max docs: " + pMaxDocs);
+        _collections.putIfAbsent(namespace(pDatabaseName, pCollectionName), new Collection(pMaxDocs));
+    }
+
+    public void insert(final String pDatabaseName, final String pCollectionName, final DBObject pDoc)
+    { collection(pDatabaseName, pCollectionName).insert(pDoc); }
+
+    /**
+     * Kill the open cursors on the collection (the next hasNext call returns false
+     * and the cursor is dead).
+     */
+    public void killCursors(final String pDatabaseName, final String pCollectionName)
+    { collection(pDatabaseName, pCollectionName).kill(); }
+
+    public boolean collectionExists(final String pDatabaseName, final String pCollectionName)
+    { return _collections.containsKey(namespace(pDatabaseName, pCollectionName)); }
+
+    @Override
+    public void verifyCollection(final TailableCursorOptions pOptions) {
+        if (collectionExists(pOptions.getDatabaseName(), pOptions.getCollectionName())) return;
+
+        if (pOptions.getAssertIfNoCappedCollection()) {
+            throw new TailableCursorException(  "No capped collection found - db: "
+                                                + pOptions.getDatabaseName()
+                                                + " - collection: "
+                                                + pOptions.getCollectionName()
+                                                + " (" + TailableCursorException.NO_COLLECTION_FOUND + ")",
+                                                TailableCursorException.NO_COLLECTION_FOUND);
+        }
+
+        createCollection(pOptions.getDatabaseName(), pOptions.getCollectionName(), _defaultMaxDocs);
+    }
+
+    @Override
+    public TailSourceCursor open(   final TailableCursorOptions pOptions,
+                                    final DBObject pQuery,
+                                    final DBObject pFields,
+                                    final boolean pAwaitData)
+    { return collection(pOptions.getDatabaseName(), pOptions.getCollectionName()).open(pQuery, pFields, pAwaitData); }
+
+    @Override
+    public DBObject findNewest(final TailableCursorOptions pOptions, final DBObject pFields) {
+        final DBObject doc = collection(pOptions.getDatabaseName(), pOptions.getCollectionName()).newest();
+        return (doc == null) ? null : DocMatcher.project(doc, pFields);
+    }
+
+    @Override
+    public DBObject findOldest(final TailableCursorOptions pOptions, final DBObject pFields) {
+        final DBObject doc = collection(pOptions.getDatabaseName(), pOptions.getCollectionName()).oldestDoc();
+        return (doc == null) ? null : DocMatcher.project(doc, pFields);
+    }
+
+    @Override
+    public long count(final TailableCursorOptions pOptions)
+    { return collection(pOptions.getDatabaseName(), pOptions.getCollectionName()).count(); }
+
+    /**
+     * Kill all the open cursors. The source can't be used after it is closed.
+     */
+    @Override
+    public void close() {
+        _closed = true;
+        for (final Collection collection : _collections.values()) collection.kill();
+    }
+
+    private Collection collection(final String pDatabaseName, final String pCollectionName) {
+        if (_closed) throw new TailableCursorException("Source closed");
+
+        final Collection collection = _collections.get(namespace(pDatabaseName, pCollectionName));
+
+        if (collection == null) {
+            throw new TailableCursorException(  "No capped collection found - db: " + pDatabaseName + " - collection: " + pCollectionName
+                                                + " (" + TailableCursorException.NO_COLLECTION_FOUND + ")",
+                                                TailableCursorException.NO_COLLECTION_FOUND);
+        }
+
+        return collection;
+    }
+
+    private static String namespace(final String pDatabaseName, final String pCollectionName)
+    { return pDatabaseName + "." + pCollectionName; }
+
+    /**
+     * The ring. Docs are stored by insert sequence: the doc with sequence n is in slot
+     * n % size until it is overwritten.
+     */
+    private static final class Collection {
+
+        private void insert(final DBObject pDoc) {
+            if (pDoc == null) throw new TailableCursorException("Null doc");
+            _lock.lock();
+            try {
+                _docs[(int)(_next % _docs.length)] = pDoc;
+                _next++;
+                if (_waiting > 0) _inserted.signalAll();
+            } finally { _lock.unlock(); }
+        }
+
+        private Cursor open(final DBObject pQuery, final DBObject pFields, final boolean pAwaitData) {
+            _lock.lock();
+            try { return new Cursor(this, pQuery, pFields, pAwaitData, oldest(), _epoch, _next == 0);
+            } finally { _lock.unlock(); }
+        }
+
+        private DBObject newest() {
+            _lock.lock();
+            try { return (_next == 0) ? null : _docs[(int)((_next - 1) % _docs.length)];
+            } finally { _lock.unlock(); }
+        }
+
+        private DBObject oldestDoc() {
+            _lock.lock();
+            try { return (_next == 0) ? null : _docs[(int)(oldest() % _docs.length)];
+            } finally { _lock.unlock(); }
+        }
+
+        private long count() { return Math.min(_next, _docs.length); }
+
+        private void kill() {
+            _lock.lock();
+            try { _epoch++; _inserted.signalAll();
+            } finally { _lock.unlock(); }
+        }
+
+        private long oldest() { return Math.max(0, _next - _docs.length); }
+
+        private Collection(final int pMaxDocs) { _docs = new DBObject[pMaxDocs]; }
+
+        private final DBObject [] _docs;
+        private volatile long _next;
+        private long _epoch;
+        private int _waiting;
+
+        private final ReentrantLock _lock = new ReentrantLock();
+        private final Condition _inserted = _lock.newCondition();
+    }
+
+    private static final class Cursor implements TailSourceCursor {
+
+        /**
+         * An interrupt while waiting kills the cursor (and the interrupt flag is kept),
+         * like a closed connection does with the driver.
+         */
+        @Override
+        public boolean hasNext() {
+            if (_pending != null) return true;
+            if (_dead) return false;
+
+            final Collection col = _collection;
+
+            boolean waited = false;
+
+            col._lock.lock();
+            try {
+                while (true) {
+                    if (_closed || col._epoch != _epoch || _position < col.oldest()) { _dead = true; return false; }
+
+                    while (_position < col._next) {
+                        final DBObject doc = col._docs[(int)(_position % col._docs.length)];
+                        _position++;
+                        if (DocMatcher.matches(_query, doc)) { _pending = doc; return true; }
+                    }
+
+                    if (!_awaitData || waited) return false;
+
+                    col._waiting++;
+                    try { waited = !col._inserted.await(AWAIT_DATA_TIME, TimeUnit.MILLISECONDS);
+                    } catch (final InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        _dead = true;
+                        return false;
+                    } finally { col._waiting--; }
+                }
+            } finally { col._lock.unlock(); }
+        }
+
+        @Override
+        public DBObject next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            final DBObject doc = _pending;
+            _pending = null;
+            return DocMatcher.project(doc, _fields);
+        }
+
+        @Override
+        public boolean isDead() { return _dead; }
+
+        @Override
+        public boolean endOfBatch() { return _pending == null && _position >= _collection._next; }
+
+        @Override
+        public void close() {
+            _closed = true;
+            _collection._lock.lock();
+            try { _collection._inserted.signalAll();
+            } finally { _collection._lock.unlock(); }
+        }
+
+        private Cursor( final Collection pCollection,
+                        final DBObject pQuery,
+                        final DBObject pFields,
+                        final boolean pAwaitData,
+                        final long pPosition,
+                        final long pEpoch,
+                        final boolean pDead)
+        {
+            _collection = pCollection;
+            _query = pQuery;
+            _fields = pFields;
+            _awaitData = pAwaitData;
+            _position = pPosition;
+            _epoch = pEpoch;
+            _dead = pDead;
+        }
+
+        private final Collection _collection;
+        private final DBObject _query;
+        private final DBObject _fields;
+        private final boolean _awaitData;
+        private final long _epoch;
+        private long _position;
+        private DBObject _pending;
+        private boolean _dead;
+        private volatile boolean _closed;
+    }
+
+    /**
+     * Construct a new object. Collections created by verifyCollection hold up to
+     * pDefaultMaxDocs docs.
+     */
+    public MemoryTailSource(final int pDefaultMaxDocs) { _defaultMaxDocs = pDefaultMaxDocs; }
+
+    public MemoryTailSource() { this(DEFAULT_MAX_DOCS); }
+
+    private final int _defaultMaxDocs;
+    private final ConcurrentHashMap<String, Collection> _collections = new ConcurrentHashMap<String, Collection>();
+    private volatile boolean _closed;
+
+    private static final int DEFAULT_MAX_DOCS = 100000;
+    private static final long AWAIT_DATA_TIME = 1000; // time in ms
+}
+
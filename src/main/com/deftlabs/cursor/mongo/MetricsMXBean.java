@@ -0,0 +1,127 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Java
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publishes a cursor's metrics over JMX. Every attribute read takes a fresh snapshot
+ * (without the lag query, except for the lag itself).
+ */
+final class MetricsMXBean implements TailableCursorMetricsMXBean {
+
+    @Override
+    public long getDocsRead() { return snapshot().getDocsRead(); }
+
+    @Override
+    public long getBytesRead() { return snapshot().getBytesRead(); }
+
+    @Override
+    public long getDocsFiltered() { return snapshot().getDocsFiltered(); }
+
+    @Override
+    public synchronized double getDocsPerSecond() { sample(); return _sample.getDocsPerSecond(_previousSample); }
+
+    @Override
+    public synchronized double getBytesPerSecond() { sample(); return _sample.getBytesPerSecond(_previousSample); }
+
+    @Override
+    public int getBufferSize() { return snapshot().getBufferSize(); }
+
+    @Override
+    public int getBufferCapacity() { return snapshot().getBufferCapacity(); }
+
+    @Override
+    public long getPutWaitMillis() { return snapshot().getPutWaitNanos() / 1000000; }
+
+    @Override
+    public long getCursorsCreated() { return snapshot().getCursorsCreated(); }
+
+    @Override
+    public long getCursorNotFoundCount() { return snapshot().getCursorNotFoundCount(); }
+
+    @Override
+    public long getErrorCount() { return snapshot().getErrorCount(); }
+
+    @Override
+    public long getOverrunCount() { return snapshot().getOverrunCount(); }
+
+    @Override
+    public long getEstimatedLostDocs() { return snapshot().getEstimatedLostDocs(); }
+
+    @Override
+    public long getDispatchDroppedCount() { return snapshot().getDispatchDroppedCount(); }
+
+    @Override
+    public double getHandoffLatencyMeanMicros() { return snapshot().getHandoffLatency().getMeanNanos() / 1000; }
+
+    @Override
+    public long getHandoffLatency99thPercentileMicros() { return snapshot().getHandoffLatency().getPercentileNanos(99) / 1000; }
+
+    @Override
+    public double getListenerLatencyMeanMicros() { return snapshot().getListenerLatency().getMeanNanos() / 1000; }
+
+    @Override
+    public long getListenerLatency99thPercentileMicros() { return snapshot().getListenerLatency().getPercentileNanos(99) / 1000; }
+
+    @Override
+    public long getLagMillis() { return snapshot().getLagMillis(); }
+
+    void register() {
+        try { ManagementFactory.getPlatformMBeanServer().registerMBean(this, _name);
+        } catch (final Exception e) { throw new TailableCursorException("Unable to register the metrics bean: " + _name, e); }
+    }
+
+    void unregister() {
+        try { ManagementFactory.getPlatformMBeanServer().unregisterMBean(_name);
+        } catch (final Exception e) { /* nada */ }
+    }
+
+    private TailableCursorMetrics snapshot() { return _cursor.getMetrics(); }
+
+    /**
+     * Move the rate window along if the current sample is at least a second old.
+     */
+    private synchronized void sample() {
+        final TailableCursorMetrics now = snapshot();
+        if (now.getTimestamp() - _sample.getTimestamp() < SAMPLE_INTERVAL) return;
+        _previousSample = _sample;
+        _sample = now;
+    }
+
+    MetricsMXBean(final TailableCursorImpl pCursor, final TailableCursorOptions pOptions) {
+        _cursor = pCursor;
+        _sample = _previousSample = snapshot();
+
+        try { _name = new ObjectName(  "com.deftlabs.cursor.mongo:type=TailableCursor,name="
+                                        + ObjectName.quote(pOptions.getDatabaseName() + "." + pOptions.getCollectionName())
+                                        + ",id=" + INSTANCES.incrementAndGet());
+        } catch (final Exception e) { throw new TailableCursorException(e); }
+    }
+
+    private final TailableCursorImpl _cursor;
+    private final ObjectName _name;
+    private TailableCursorMetrics _sample;
+    private TailableCursorMetrics _previousSample;
+
+    private static final long SAMPLE_INTERVAL = 1000; // time in ms
+    private static final AtomicInteger INSTANCES = new AtomicInteger(0);
+}
+
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Java
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The live counters behind the metrics snapshots. The counts are lock-free atomics,
+ * mostly written by the reader only, and the latencies go to striped histograms.
+ */
+final class MetricsRecorder {
+
+    void docRead(final int pBytes) {
+        _docsRead.getAndIncrement();
+        if (pBytes > 0) _bytesRead.getAndAdd(pBytes);
+    }
+
+    void docFiltered() { _docsFiltered.getAndIncrement(); }
+
+    void cursorCreated() { _cursorsCreated.getAndIncrement(); }
+
+    void cursorNotFound() { _cursorNotFound.getAndIncrement(); }
+
+    void error() { _errors.getAndIncrement(); }
+
+    void overrun(final long pEstimatedLostDocs) {
+        _overruns.getAndIncrement();
+        if (pEstimatedLostDocs > 0) _estimatedLostDocs.getAndAdd(pEstimatedLostDocs);
+    }
+
+    void delivered(final Object pPosition) { if (pPosition != null) _lastDelivered = pPosition; }
+
+    void read(final Object pPosition) { _lastRead = pPosition; }
+
+    long getStartTime() { return _startTime; }
+    long getDocsRead() { return _docsRead.get(); }
+    long getBytesRead() { return _bytesRead.get(); }
+    long getDocsFiltered() { return _docsFiltered.get(); }
+    long getCursorsCreated() { return _cursorsCreated.get(); }
+    long getCursorNotFoundCount() { return _cursorNotFound.get(); }
+    long getErrorCount() { return _errors.get(); }
+    long getOverrunCount() { return _overruns.get(); }
+    long getEstimatedLostDocs() { return _estimatedLostDocs.get(); }
+    Object getLastDelivered() { return _lastDelivered; }
+    Object getLastRead() { return _lastRead; }
+
+    /**
+     * The time docs wait in the prefetch buffer before nextDoc/nextDocs returns them.
+     */
+    LatencyRecorder getHandoffLatency() { return _handoffLatency; }
+
+    /**
+     * The time spent in the doc and batch listeners.
+     */
+    LatencyRecorder getListenerLatency() { return _listenerLatency; }
+
+    private final long _startTime = System.currentTimeMillis();
+
+    private final AtomicLong _docsRead = new AtomicLong(0);
+    private final AtomicLong _bytesRead = new AtomicLong(0);
+    private final AtomicLong _docsFiltered = new AtomicLong(0);
+    private final AtomicLong _cursorsCreated = new AtomicLong(0);
+    private final AtomicLong _cursorNotFound = new AtomicLong(0);
+    private final AtomicLong _errors = new AtomicLong(0);
+    private final AtomicLong _overruns = new AtomicLong(0);
+    private final AtomicLong _estimatedLostDocs = new AtomicLong(0);
+    private volatile Object _lastDelivered;
+    private volatile Object _lastRead;
+
+    private final LatencyRecorder _handoffLatency = new LatencyRecorder();
+    private final LatencyRecorder _listenerLatency = new LatencyRecorder();
+}
+
@@ -0,0 +1,63 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.BasicDBObject;
+
+// Java
+import java.util.Date;
+
+/**
+ * A checkpoint store backed by a (regular, non-capped) Mongo collection. Each key
+ * is a doc: { _id: key, position: value, updated: date }.
+ */
+public class MongoCheckpointStore implements CheckpointStore {
+
+    @Override
+    public Object load(final String pKey) {
+        final DBObject doc = _collection.findOne(new BasicDBObject("_id", pKey));
+        return (doc == null) ? null : doc.get(POSITION_FIELD);
+    }
+
+    @Override
+    public void save(final String pKey, final Object pPosition) {
+        final BasicDBObject values = new BasicDBObject(POSITION_FIELD, pPosition);
+        values.put(UPDATED_FIELD, new Date());
+        _collection.update(new BasicDBObject("_id", pKey), new BasicDBObject("$set", values), true, false);
+    }
+
+    /**
+     * The collection belongs to the caller's Mongo instance, so there is nothing to close.
+     */
+    @Override
+    public void close() { }
+
+    /**
+     * Construct a new object.
+     * @param pCollection The collection the checkpoints are stored in.
+     */
+    public MongoCheckpointStore(final DBCollection pCollection) { _collection = pCollection; }
+
+    private final DBCollection _collection;
+
+    private static final String POSITION_FIELD = "position";
+    private static final String UPDATED_FIELD = "updated";
+}
+
@@ -0,0 +1,73 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.Mongo;
+import com.mongodb.MongoURI;
+
+// Java
+import java.util.Map;
+import java.util.HashMap;
+import java.net.UnknownHostException;
+
+/**
+ * The Mongo instances created for uris, shared by the sources on the same uri. An
+ * instance is closed when the last source using it is closed.
+ */
+final class MongoClientCache {
+
+    /**
+     * Returns the instance for the uri, creating it if no source is using one.
+     */
+    static synchronized Mongo acquire(final String pMongoUri) {
+        Client client = CLIENTS.get(pMongoUri);
+
+        if (client == null) {
+            try { client = new Client(new Mongo(new MongoURI(pMongoUri)));
+            } catch (final UnknownHostException uhe) {
+                throw new TailableCursorException("Host not found - uri: " + pMongoUri, uhe);
+            }
+            CLIENTS.put(pMongoUri, client);
+        }
+
+        client._references++;
+        return client._mongo;
+    }
+
+    /**
+     * Release a reference taken with acquire.
+     */
+    static synchronized void release(final String pMongoUri) {
+        final Client client = CLIENTS.get(pMongoUri);
+        if (client == null || --client._references > 0) return;
+        CLIENTS.remove(pMongoUri);
+        client._mongo.close();
+    }
+
+    private static final class Client {
+        private Client(final Mongo pMongo) { _mongo = pMongo; }
+        private final Mongo _mongo;
+        private int _references;
+    }
+
+    private MongoClientCache() { }
+
+    private static final Map<String, Client> CLIENTS = new HashMap<String, Client>();
+}
+
@@ -0,0 +1,144 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBCollection;
+import com.mongodb.BasicDBObject;
+import com.mongodb.WriteConcern;
+import com.mongodb.MongoException;
+
+// Java
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * A lease store backed by a (regular, non-capped) Mongo collection. A membership is a
+ * doc: { _id: group/member/id, group: group, member: id, expires: ms }. A lease is a doc:
+ * { _id: group/partition/n, owner: id, expires: ms, position: value }. Leases are taken
+ * with a conditional upsert, so two members can't take the same lease.
+ */
+public class MongoLeaseStore implements LeaseStore {
+
+    @Override
+    public void heartbeat(final String pGroup, final String pMember, final long pTtl) {
+        final BasicDBObject values = new BasicDBObject(GROUP_FIELD, pGroup);
+        values.put(MEMBER_FIELD, pMember);
+        values.put(EXPIRES_FIELD, System.currentTimeMillis() + pTtl);
+        _collection.update(new BasicDBObject("_id", memberId(pGroup, pMember)), new BasicDBObject("$set", values), true, false);
+    }
+
+    @Override
+    public List<String> members(final String pGroup) {
+        final BasicDBObject query = new BasicDBObject(GROUP_FIELD, pGroup);
+        query.put(EXPIRES_FIELD, new BasicDBObject("$gt", System.currentTimeMillis()));
+
+        final List<String> members = new ArrayList<String>();
+        final DBCursor cur = _collection.find(query, new BasicDBObject(MEMBER_FIELD, 1));
+
+        try { while (cur.hasNext()) members.add((String)cur.next().get(MEMBER_FIELD));
+        } finally { cur.close(); }
+
+        Collections.sort(members);
+        return members;
+    }
+
+    @Override
+    public void leave(final String pGroup, final String pMember)
+    { _collection.remove(new BasicDBObject("_id", memberId(pGroup, pMember))); }
+
+    /**
+     * The lease is matched if it is held by the member or has expired. If it exists but is
+     * held by another member, the upsert fails on the duplicate id.
+     */
+    @Override
+    public boolean acquire(final String pGroup, final int pPartition, final String pMember, final long pTtl) {
+        final long now = System.currentTimeMillis();
+
+        final BasicDBObject query = new BasicDBObject("_id", leaseId(pGroup, pPartition));
+        query.put("$or", Arrays.asList( new BasicDBObject(OWNER_FIELD, pMember),
+                                        new BasicDBObject(EXPIRES_FIELD, new BasicDBObject("$lt", now))));
+
+        final BasicDBObject values = new BasicDBObject(OWNER_FIELD, pMember);
+        values.put(EXPIRES_FIELD, now + pTtl);
+
+        try { return _collection.update(query, new BasicDBObject("$set", values), true, false, WriteConcern.SAFE).getN() == 1;
+        } catch (final MongoException.DuplicateKey dk) { return false; }
+    }
+
+    @Override
+    public boolean renew(   final String pGroup,
+                            final int pPartition,
+                            final String pMember,
+                            final long pTtl,
+                            final Object pPosition)
+    {
+        final BasicDBObject values = new BasicDBObject(EXPIRES_FIELD, System.currentTimeMillis() + pTtl);
+        if (pPosition != null) values.put(POSITION_FIELD, pPosition);
+        return _collection.update(ownedLease(pGroup, pPartition, pMember), new BasicDBObject("$set", values), false, false, WriteConcern.SAFE).getN() == 1;
+    }
+
+    @Override
+    public void release(final String pGroup, final int pPartition, final String pMember, final Object pPosition) {
+        final BasicDBObject values = new BasicDBObject(OWNER_FIELD, null);
+        values.put(EXPIRES_FIELD, 0L);
+        if (pPosition != null) values.put(POSITION_FIELD, pPosition);
+        _collection.update(ownedLease(pGroup, pPartition, pMember), new BasicDBObject("$set", values), false, false, WriteConcern.SAFE);
+    }
+
+    @Override
+    public Object position(final String pGroup, final int pPartition) {
+        final DBObject lease = _collection.findOne(new BasicDBObject("_id", leaseId(pGroup, pPartition)));
+        return (lease == null) ? null : lease.get(POSITION_FIELD);
+    }
+
+    /**
+     * The collection belongs to the caller's Mongo instance, so there is nothing to close.
+     */
+    @Override
+    public void close() { }
+
+    private DBObject ownedLease(final String pGroup, final int pPartition, final String pMember) {
+        final BasicDBObject query = new BasicDBObject("_id", leaseId(pGroup, pPartition));
+        query.put(OWNER_FIELD, pMember);
+        return query;
+    }
+
+    private String memberId(final String pGroup, final String pMember) { return pGroup + "/member/" + pMember; }
+
+    private String leaseId(final String pGroup, final int pPartition) { return pGroup + "/partition/" + pPartition; }
+
+    /**
+     * Construct a new object.
+     * @param pCollection The collection the memberships and leases are stored in.
+     */
+    public MongoLeaseStore(final DBCollection pCollection) { _collection = pCollection; }
+
+    private final DBCollection _collection;
+
+    private static final String GROUP_FIELD = "group";
+    private static final String MEMBER_FIELD = "member";
+    private static final String OWNER_FIELD = "owner";
+    private static final String EXPIRES_FIELD = "expires";
+    private static final String POSITION_FIELD = "position";
+}
+
@@ -0,0 +1,195 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DB;
+import com.mongodb.Bytes;
+import com.mongodb.Mongo;
+import com.mongodb.DBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBCollection;
+import com.mongodb.BasicDBObject;
+
+// Java
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A tail source on the Mongo driver. Sources created with a uri share one Mongo
+ * instance (connection pool) per uri. The collection handles are cached.
+ */
+public class MongoTailSource implements TailSource {
+
+    @Override
+    public void verifyCollection(final TailableCursorOptions pOptions) {
+        final DB db = _mongo.getDB(pOptions.getDatabaseName());
+
+        if (!db.collectionExists(pOptions.getCollectionName())) {
+            if (pOptions.getAssertIfNoCappedCollection()) {
+                throw new TailableCursorException(  "No capped collection found - db: "
+                                                    + pOptions.getDatabaseName()
+                                                    + " - collection: "
+                                                    + pOptions.getCollectionName()
+                                                    + " (" + TailableCursorException.NO_COLLECTION_FOUND + ")",
+                                                    TailableCursorException.NO_COLLECTION_FOUND);
+            }
+
+            final BasicDBObject options = new BasicDBObject("capped", true);
+            options.put("size", pOptions.getDefaultCappedCollectionSize());
+            db.createCollection(pOptions.getCollectionName(), options);
+        } else {
+            // Verify the collection is capped.
+            if (!collection(pOptions).isCapped()) {
+                throw new TailableCursorException(  "Not a capped collection - db: "
+                                                    + pOptions.getDatabaseName()
+                                                    + " - collection: "
+                                                    + pOptions.getCollectionName()
+                                                    + " (" + TailableCursorException.NON_CAPPED_COLLECTION + ")",
+                                                    TailableCursorException.NON_CAPPED_COLLECTION);
+            }
+        }
+    }
+
+    /**
+     * The getmores of a cursor go to the server the query ran on, so no request
+     * (connection) is held for the cursor.
+     */
+    @Override
+    public TailSourceCursor open(   final TailableCursorOptions pOptions,
+                                    final DBObject pQuery,
+                                    final DBObject pFields,
+                                    final boolean pAwaitData)
+    {
+        final DBCursor cur = collection(pOptions)
+        .find(pQuery, pFields).sort(NATURAL_ORDER).addOption(Bytes.QUERYOPTION_TAILABLE);
+
+        if (pAwaitData) cur.addOption(Bytes.QUERYOPTION_AWAITDATA);
+
+        if (pOptions.getOplogReplay()) cur.addOption(Bytes.QUERYOPTION_OPLOGREPLAY);
+
+        if (pOptions.getRawDocs()) cur.setDecoderFactory(RawDBDecoder.FACTORY);
+
+        return new Cursor(cur);
+    }
+
+    @Override
+    public DBObject findNewest(final TailableCursorOptions pOptions, final DBObject pFields)
+    { return findFirst(pOptions, pFields, REVERSE_NATURAL_ORDER); }
+
+    @Override
+    public DBObject findOldest(final TailableCursorOptions pOptions, final DBObject pFields)
+    { return findFirst(pOptions, pFields, NATURAL_ORDER); }
+
+    @Override
+    public long count(final TailableCursorOptions pOptions)
+    { return collection(pOptions).count(); }
+
+    private DBObject findFirst(final TailableCursorOptions pOptions, final DBObject pFields, final DBObject pOrder) {
+        final DBCursor cur = collection(pOptions).find(ALL, pFields).sort(pOrder).limit(1);
+
+        try { return (cur.hasNext()) ? cur.next() : null;
+        } finally { cur.close(); }
+    }
+
+    private DBCollection collection(final TailableCursorOptions pOptions) {
+        final String name = pOptions.getDatabaseName() + "." + pOptions.getCollectionName();
+
+        DBCollection col = _collections.get(name);
+        if (col != null) return col;
+
+        col = _mongo.getDB(pOptions.getDatabaseName()).getCollection(pOptions.getCollectionName());
+        final DBCollection existing = _collections.putIfAbsent(name, col);
+        return (existing != null) ? existing : col;
+    }
+
+    /**
+     * Releases the Mongo instance if it was created for a uri (it is closed when no other
+     * source is using it).
+     */
+    @Override
+    public void close() { if (_mongoUri != null && _closed.compareAndSet(false, true)) MongoClientCache.release(_mongoUri); }
+
+    public Mongo getMongo() { return _mongo; }
+
+    private static class Cursor implements TailSourceCursor {
+
+        @Override
+        public boolean hasNext() { return _cur.hasNext(); }
+
+        @Override
+        public DBObject next() { return _cur.next(); }
+
+        @Override
+        public boolean isDead() { return _cur.getCursorId() == 0; }
+
+        @Override
+        public boolean endOfBatch() {
+            final List<Integer> sizes = _cur.getSizes();
+            for (; _batchesSeen < sizes.size(); _batchesSeen++) _docsFetched += sizes.get(_batchesSeen);
+            return _cur.numSeen() >= _docsFetched;
+        }
+
+        @Override
+        public void close() { _cur.close(); }
+
+        private Cursor(final DBCursor pCur) { _cur = pCur; }
+
+        private final DBCursor _cur;
+        private int _batchesSeen;
+        private int _docsFetched;
+    }
+
+    /**
+     * Construct a new object on the Mongo instance for the uri. The instance is shared with
+     * the other sources on the same uri.
+     * @param pMongoUri The uri to connect to the server.
+     */
+    public MongoTailSource(final String pMongoUri) {
+        _mongo = MongoClientCache.acquire(pMongoUri);
+        _mongoUri = pMongoUri;
+    }
+
+    /**
+     * Construct a new object on a shared Mongo instance. The instance is not closed
+     * by the source.
+     */
+    public MongoTailSource(final Mongo pMongo) {
+        _mongo = pMongo;
+        _mongoUri = null;
+    }
+
+    /**
+     * Returns a source on the options' shared Mongo instance or, if there is none, the
+     * instance for the uri.
+     */
+    static MongoTailSource create(final TailableCursorOptions pOptions)
+    { return (pOptions.hasMongo()) ? new MongoTailSource(pOptions.getMongo()) : new MongoTailSource(pOptions.getMongoUri()); }
+
+    private final Mongo _mongo;
+    private final String _mongoUri;
+    private final AtomicBoolean _closed = new AtomicBoolean(false);
+    private final ConcurrentMap<String, DBCollection> _collections = new ConcurrentHashMap<String, DBCollection>();
+
+    // Shared by every query (the driver does not modify them).
+    private static final DBObject ALL = new BasicDBObject();
+    private static final DBObject NATURAL_ORDER = new BasicDBObject("$natural", 1);
+    private static final DBObject REVERSE_NATURAL_ORDER = new BasicDBObject("$natural", -1);
+}
+
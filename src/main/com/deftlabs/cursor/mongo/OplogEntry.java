@@ -0,0 +1,102 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+import org.bson.types.BSONTimestamp;
+
+/**
+ * A typed view of an oplog entry. Nothing is copied: each getter reads its field from
+ * the doc when it is called, so with raw docs only the fields used are decoded.
+ */
+public final class OplogEntry {
+
+    /**
+     * Returns the time of the entry (the ts field).
+     */
+    public BSONTimestamp getTimestamp() { return (BSONTimestamp)_doc.get("ts"); }
+
+    /**
+     * Returns the type of the entry or null if the op field is not known.
+     */
+    public OplogOperation getOperation() { return OplogOperation.fromCode((String)_doc.get("op")); }
+
+    /**
+     * Returns the namespace (database.collection) of the entry. The namespace of a
+     * command is database.$cmd.
+     */
+    public String getNamespace() { return (String)_doc.get("ns"); }
+
+    public String getDatabaseName() {
+        final String ns = getNamespace();
+        final int idx = (ns == null) ? -1 : ns.indexOf('.');
+        return (idx < 0) ? ns : ns.substring(0, idx);
+    }
+
+    public String getCollectionName() {
+        final String ns = getNamespace();
+        final int idx = (ns == null) ? -1 : ns.indexOf('.');
+        return (idx < 0) ? null : ns.substring(idx + 1);
+    }
+
+    /**
+     * Returns the o field: the doc inserted, the update (or replacement doc), the
+     * criteria of a delete or the command.
+     */
+    public DBObject getObject() { return (DBObject)_doc.get("o"); }
+
+    /**
+     * Returns the o2 field: the criteria of an update (null for the other types).
+     */
+    public DBObject getCriteria() { return (DBObject)_doc.get("o2"); }
+
+    /**
+     * Returns the _id of the doc inserted, updated or deleted or null for the other types.
+     */
+    public Object getDocId() {
+        final OplogOperation op = getOperation();
+        if (op == null) return null;
+
+        final DBObject idDoc;
+        switch (op) {
+            case INSERT: case DELETE: idDoc = getObject(); break;
+            case UPDATE: idDoc = getCriteria(); break;
+            default: return null;
+        }
+
+        return (idDoc == null) ? null : idDoc.get("_id");
+    }
+
+    /**
+     * Returns the entry doc.
+     */
+    public DBObject getDoc() { return _doc; }
+
+    @Override
+    public String toString() { return _doc.toString(); }
+
+    /**
+     * Construct a new object.
+     * @param pDoc The oplog entry doc.
+     */
+    public OplogEntry(final DBObject pDoc) { _doc = pDoc; }
+
+    private final DBObject _doc;
+}
+
@@ -0,0 +1,60 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deftlabs.cursor.mongo;
+
+/**
+ * The type of an oplog entry (the op field).
+ */
+public enum OplogOperation {
+
+    INSERT("i"),
+    UPDATE("u"),
+    DELETE("d"),
+    COMMAND("c"),
+
+    /**
+     * A no-op entry (e.g., written by the server to keep the oplog moving).
+     */
+    NOOP("n");
+
+    /**
+     * Returns the code stored in the op field.
+     */
+    public String getCode() { return _code; }
+
+    /**
+     * Returns the operation for an op field code or null if it is not known.
+     */
+    public static OplogOperation fromCode(final String pCode) {
+        if (pCode == null || pCode.length() != 1) return null;
+
+        switch (pCode.charAt(0)) {
+            case 'i': return INSERT;
+            case 'u': return UPDATE;
+            case 'd': return DELETE;
+            case 'c': return COMMAND;
+            case 'n': return NOOP;
+            default: return null;
+        }
+    }
+
+    private OplogOperation(final String pCode) { _code = pCode; }
+
+    private final String _code;
+}
+
@@ -0,0 +1,223 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+
+// Java
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Holds a consumer group member's share of the partitions. The live members are sorted
+ * and partition n belongs to member n % count. In the background the member renews its
+ * leases, gives up the partitions that now belong to another member and takes the ones
+ * that belong to it once they are free (released or expired).
+ *
+ * The reader passes every doc through accept. A doc is delivered if its partition is
+ * held and it is after the last doc of the partition read by the member (or, for a
+ * partition it has just taken, the partition's position). The position saved in the
+ * lease only moves when a doc is acknowledged, so docs read but not yet handled are
+ * not skipped by the member that takes the partition next. When a partition is taken
+ * at a position the reader has already passed, the reader is sent back to it. Docs can
+ * be delivered twice around a handoff, but not lost (unless the capped collection has
+ * lapped the position).
+ */
+final class PartitionCoordinator implements Runnable {
+
+    /**
+     * Returns true if the doc should be delivered. This is only called by the reader.
+     */
+    boolean accept(final DBObject pDoc) {
+        final int partition = partition(pDoc);
+        if (_owned.get(partition) == 0) return false;
+
+        final Object position = pDoc.get(_resumeField);
+        if (position == null) return true;
+
+        final Object read = _read.get(partition);
+        if (read != null && compare(position, read) <= 0) return false;
+
+        _read.set(partition, position);
+        return true;
+    }
+
+    /**
+     * Move the position of the doc's partition up to the doc. Docs are acknowledged once
+     * they (and the docs of the partition read before them) have been handled.
+     */
+    void acknowledge(final DBObject pDoc) {
+        final int partition = partition(pDoc);
+        if (_owned.get(partition) == 0) return;
+
+        final Object position = pDoc.get(_resumeField);
+        if (position == null) return;
+
+        while (true) {
+            final Object floor = _floors.get(partition);
+            if (floor != null && compare(position, floor) <= 0) return;
+            if (_floors.compareAndSet(partition, floor, position)) return;
+        }
+    }
+
+    int held() {
+        int held = 0;
+        for (int partition=0; partition < _owned.length(); partition++) held += _owned.get(partition);
+        return held;
+    }
+
+    /**
+     * Returns (and clears) the position the reader has to go back to or null.
+     */
+    Object takeRewind() { return _rewind.getAndSet(null); }
+
+    boolean hasRewind() { return _rewind.get() != null; }
+
+    /**
+     * Join the group and take the member's share of the free partitions. This is called
+     * before the reader starts.
+     */
+    void start() {
+        balance();
+        _thread.start();
+    }
+
+    /**
+     * Stop the background thread, give up the leases (saving the positions) and leave.
+     */
+    void shutdown() {
+        _running = false;
+        _thread.interrupt();
+        try { _thread.join(); } catch (final InterruptedException ie) { Thread.currentThread().interrupt(); }
+
+        try {
+            for (int partition=0; partition < _owned.length(); partition++) {
+                if (_owned.getAndSet(partition, 0) == 1) _store.release(_group, partition, _member, _floors.get(partition));
+            }
+            _store.leave(_group, _member);
+        } catch (final Throwable t) { _logger.log(Level.SEVERE, "Unable to leave consumer group: " + _group, t); }
+    }
+
+    @Override
+    public void run() {
+        while (_running) {
+            try { Thread.sleep(_interval);
+            } catch (final InterruptedException ie) { break; }
+
+            try { balance();
+            } catch (final Throwable t) { _logger.log(Level.SEVERE, "Unable to balance consumer group: " + _group, t); }
+        }
+    }
+
+    private void balance() {
+        _store.heartbeat(_group, _member, _leaseTime);
+
+        final List<String> members = _store.members(_group);
+        final int index = members.indexOf(_member);
+
+        for (int partition=0; partition < _owned.length(); partition++) {
+            final boolean assigned = index >= 0 && partition % members.size() == index;
+
+            if (_owned.get(partition) == 1) {
+                if (!assigned) {
+                    _owned.set(partition, 0);
+                    _store.release(_group, partition, _member, _floors.get(partition));
+                } else if (!_store.renew(_group, partition, _member, _leaseTime, _floors.get(partition))) {
+                    _owned.set(partition, 0); // expired and taken by another member
+                }
+            } else if (assigned && _store.acquire(_group, partition, _member, _leaseTime)) { take(partition); }
+        }
+    }
+
+    private void take(final int pPartition) {
+        final Object position = _store.position(_group, pPartition);
+        _floors.set(pPartition, position);
+        _read.set(pPartition, position);
+        _owned.set(pPartition, 1);
+
+        if (position == null) return;
+
+        // The reader may have passed docs of the partition while it was held by another member.
+        while (true) {
+            final Object rewind = _rewind.get();
+            if (rewind != null && compare(rewind, position) <= 0) return;
+            if (_rewind.compareAndSet(rewind, position)) return;
+        }
+    }
+
+    private int partition(final DBObject pDoc)
+    { return partition((_keyExtractor != null) ? _keyExtractor.key(pDoc) : pDoc.get("_id"), _owned.length()); }
+
+    /**
+     * Returns the key's partition. The partition comes from the key's contents (not its
+     * hashCode, which is identity based for byte arrays and Binary), so every member
+     * computes the same partition for its own copy of a doc.
+     * @throws TailableCursorException If the key type is not supported.
+     */
+    static int partition(final Object pKey, final int pPartitions) {
+        if (pKey == null) return 0;
+        final long bits = DedupWindow.fingerprint(pKey);
+        final int hash = (int)(bits ^ (bits >>> 32));
+        return (hash & Integer.MAX_VALUE) % pPartitions;
+    }
+
+    /**
+     * Positions that can't be compared are treated as equal.
+     */
+    private int compare(final Object pA, final Object pB) {
+        try { return DocMatcher.compare(pA, pB);
+        } catch (final TailableCursorException tce) { return 0; }
+    }
+
+    PartitionCoordinator(final TailableCursorOptions pOptions) {
+        _store = pOptions.getLeaseStore();
+        _group = pOptions.getConsumerGroup();
+        _member = pOptions.getMemberId();
+        _leaseTime = pOptions.getLeaseTime();
+        _interval = Math.max(1, _leaseTime / 3);
+        _resumeField = pOptions.getResumeField();
+        _keyExtractor = pOptions.getPartitionKeyExtractor();
+        _owned = new AtomicIntegerArray(pOptions.getPartitionCount());
+        _floors = new AtomicReferenceArray<Object>(pOptions.getPartitionCount());
+        _read = new AtomicReferenceArray<Object>(pOptions.getPartitionCount());
+        _thread = pOptions.newThread(this, "TailableCursorPartitions-" + _group + "-" + _member, true);
+    }
+
+    private final LeaseStore _store;
+    private final String _group;
+    private final String _member;
+    private final long _leaseTime;
+    private final long _interval;
+    private final String _resumeField;
+    private final TailableCursorKeyExtractor _keyExtractor;
+    private final Thread _thread;
+
+    private final AtomicIntegerArray _owned;
+    private final AtomicReferenceArray<Object> _floors;
+    private final AtomicReferenceArray<Object> _read;
+    private final AtomicReference<Object> _rewind = new AtomicReference<Object>();
+    private volatile boolean _running = true;
+
+    private final Logger _logger = Logger.getLogger("com.deftlabs.cursor.mongo.TailableCursor");
+}
+
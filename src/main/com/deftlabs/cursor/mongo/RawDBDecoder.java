@@ -0,0 +1,59 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBCallback;
+import com.mongodb.DBDecoder;
+import com.mongodb.DBCollection;
+import com.mongodb.LazyDBCallback;
+import com.mongodb.LazyDBDecoder;
+import com.mongodb.DBDecoderFactory;
+import org.bson.BSONCallback;
+
+/**
+ * A decoder that creates RawDBObject docs. Unlike the driver's lazy callback, this
+ * does not look for DBRefs, because that reads the keys of every doc.
+ */
+final class RawDBDecoder extends LazyDBDecoder {
+
+    /**
+     * The driver's byte array decode loops back on itself through a stream, so hand
+     * the bytes straight to the callback (which also avoids a copy).
+     */
+    @Override
+    public int decode(final byte [] pData, final BSONCallback pCallback) {
+        pCallback.gotBinary(null, (byte)0, pData);
+        return pData.length;
+    }
+
+    @Override
+    public DBCallback getDBCallback(final DBCollection pCollection) { return new RawDBCallback(pCollection); }
+
+    private static final class RawDBCallback extends LazyDBCallback {
+        @Override
+        public Object createObject(final byte [] pData, final int pOffset) { return new RawDBObject(pData, pOffset, this); }
+
+        private RawDBCallback(final DBCollection pCollection) { super(pCollection); }
+    }
+
+    static final DBDecoderFactory FACTORY = new DBDecoderFactory() {
+        @Override
+        public DBDecoder create() { return new RawDBDecoder(); }
+    };
+}
+
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.LazyDBObject;
+import org.bson.BSON;
+import org.bson.LazyBSONCallback;
+import org.bson.types.ObjectId;
+import org.bson.types.BSONTimestamp;
+
+// Java
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+/**
+ * A doc that is delivered as the raw BSON bytes read from the server. Fields are
+ * only decoded when they are accessed, so docs that are just forwarded or routed
+ * on one or two fields never build an object graph. The doc is read only.
+ */
+public class RawDBObject extends LazyDBObject {
+
+    /**
+     * Returns a read only view of the doc's BSON bytes. The view is not a copy.
+     */
+    public ByteBuffer getByteBuffer() {
+        final ByteBuffer buffer = _input.duplicate();
+        buffer.limit(_doc_start_offset + getBSONSize());
+        buffer.position(_doc_start_offset);
+        return buffer.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Write the doc's BSON bytes to the stream.
+     */
+    public void writeTo(final OutputStream pOut) throws IOException {
+        if (_input.hasArray()) {
+            pOut.write(_input.array(), _input.arrayOffset() + _doc_start_offset, getBSONSize());
+            return;
+        }
+
+        final byte [] bytes = new byte[getBSONSize()];
+        getByteBuffer().get(bytes);
+        pOut.write(bytes);
+    }
+
+    /**
+     * The driver's get builds a record (and a name string) for every field up to the
+     * one asked for. This compares the field names in place and reads the types used
+     * as positions and keys (ObjectIds, numbers, timestamps and dates) directly, so
+     * only the value is allocated. Other types and non-ascii names use the driver's get.
+     */
+    @Override
+    public Object get(final String pKey) {
+        int offset = _doc_start_offset + FIRST_ELEMENT_OFFSET;
+
+        while (!isElementEmpty(offset)) {
+            final int nameSize = sizeCString(offset);
+
+            final int match = nameMatches(offset + 1, pKey);
+            if (match < 0) return super.get(pKey);
+
+            if (match > 0) {
+                final int valueOffset = offset + 1 + nameSize;
+                switch (getElementType(offset)) {
+                    case BSON.OID: return new ObjectId(_input.getIntBE(valueOffset), _input.getIntBE(valueOffset + 4), _input.getIntBE(valueOffset + 8));
+                    case BSON.NUMBER_INT: return _input.getInt(valueOffset);
+                    case BSON.NUMBER_LONG: return _input.getLong(valueOffset);
+                    case BSON.NUMBER: return _input.getDouble(valueOffset);
+                    case BSON.TIMESTAMP: return new BSONTimestamp(_input.getInt(valueOffset + 4), _input.getInt(valueOffset));
+                    case BSON.DATE: return new Date(_input.getLong(valueOffset));
+                    default: return super.get(pKey);
+                }
+            }
+
+            offset += 1 + nameSize + getElementBSONSize(offset);
+        }
+
+        return null;
+    }
+
+    /**
+     * Compare the field name at the offset with the key without decoding it.
+     * @return 1 if equal, 0 if not or -1 if the key is not ascii.
+     */
+    private int nameMatches(final int pOffset, final String pKey) {
+        final int length = pKey.length();
+        for (int idx=0; idx < length; idx++) {
+            final char c = pKey.charAt(idx);
+            if (c >= 0x80) return -1;
+            if (_input.get(pOffset + idx) != c) return 0;
+        }
+        return (_input.get(pOffset + length) == 0) ? 1 : 0;
+    }
+
+    public RawDBObject(final byte [] pData, final int pOffset, final LazyBSONCallback pCallback)
+    { super(pData, pOffset, pCallback); }
+
+    private static final int FIRST_ELEMENT_OFFSET = 4;
+}
+
@@ -0,0 +1,52 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+
+/**
+ * Runs the passes of cursors that do not have a reader thread of their own (group
+ * members and publisher subscriptions) and takes the docs they read.
+ */
+interface ReaderHost {
+
+    /**
+     * Schedule the next pass of a cursor.
+     * @param pReader The pass to run.
+     * @param pDelay The delay in ms.
+     */
+    void schedule(final Runnable pReader, final long pDelay);
+
+    /**
+     * Returns the maximum number of docs the next pass may read (zero for none).
+     */
+    int getMaxDocsPerPass();
+
+    /**
+     * Called with each doc read (on the reader thread). The host acknowledges the doc
+     * on the cursor once it has been handed out, not when it is buffered.
+     */
+    void deliver(final TailableCursorImpl pCursor, final DBObject pDoc) throws InterruptedException;
+
+    /**
+     * Called when the cursor stops itself because of an error it can't recover from.
+     */
+    void failed(final Throwable pT);
+}
+
@@ -0,0 +1,121 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DefaultDBDecoder;
+import com.mongodb.DefaultDBEncoder;
+import org.bson.io.BasicOutputBuffer;
+
+/**
+ * A prefetch buffer that spills to disk instead of blocking the reader. Docs go into
+ * the ring until it is full; after that they are appended to a journal of memory
+ * mapped segment files as BSON and read back in order once the ring has been drained.
+ * The reader only blocks when the journal reaches its byte limit.
+ *
+ * Docs stay in order because nothing is added to the ring while the journal has docs:
+ * everything in the ring is older than everything in the journal. The journal is not
+ * durable. When the buffer is closed the spilled docs are dropped (with a checkpoint
+ * store, the unacknowledged docs are read again on the next start).
+ */
+final class SpillBuffer extends DocRingBuffer<DBObject> {
+
+    /**
+     * Add a doc to the ring or, if it is full (or docs have already spilled), to the journal.
+     * This is only called by the reader thread.
+     */
+    @Override
+    void put(final DBObject pDoc, final int pSize) throws InterruptedException {
+        if (isClosed()) throw new InterruptedException();
+        if (_journal.isEmpty() && offer(pDoc, pSize)) return;
+
+        // A consumer can drain the ring and park while the doc is being encoded.
+        _journal.append(encode(pDoc));
+        signalConsumers();
+    }
+
+    /**
+     * Returns the next doc from the ring or, once the ring is empty, the journal.
+     */
+    @Override
+    DBObject poll() {
+        final DBObject doc = super.poll();
+        if (doc != null) return doc;
+
+        final byte [] record = _journal.poll();
+        return (record != null) ? decode(record) : null;
+    }
+
+    @Override
+    int size() { return super.size() + _journal.size(); }
+
+    /**
+     * Close the ring and delete the journal segments.
+     */
+    @Override
+    void close() {
+        super.close();
+        _journal.close();
+    }
+
+    /**
+     * Returns the number of docs in the journal.
+     */
+    int spilled() { return _journal.size(); }
+
+    private byte [] encode(final DBObject pDoc) {
+        if (pDoc instanceof RawDBObject) {
+            final byte [] bytes = new byte[((RawDBObject)pDoc).getBSONSize()];
+            ((RawDBObject)pDoc).getByteBuffer().get(bytes);
+            return bytes;
+        }
+
+        final BasicOutputBuffer out = new BasicOutputBuffer();
+        _encoder.writeObject(out, pDoc);
+        return out.toByteArray();
+    }
+
+    private DBObject decode(final byte [] pRecord) {
+        if (_rawDocs) return RawDBDecoder.FACTORY.create().decode(pRecord, (DBCollection)null);
+        return new DefaultDBDecoder().decode(pRecord, (DBCollection)null);
+    }
+
+    /**
+     * Construct a new object.
+     * @param pOptions The cursor options (spill directory, segment size and byte limit).
+     * @param pLatency Records how long each doc was in the ring (null to skip).
+     */
+    SpillBuffer(final TailableCursorOptions pOptions, final LatencyRecorder pLatency) {
+        super(pOptions.getPrefetchCount(), pOptions.getPrefetchBytes(), pOptions.getWaitStrategy(), pLatency);
+
+        _rawDocs = pOptions.getRawDocs();
+        _journal = new SpillJournal(pOptions.getSpillDirectory(),
+                                    pOptions.getDatabaseName() + "." + pOptions.getCollectionName() + "-",
+                                    pOptions.getSpillSegmentSize(),
+                                    pOptions.getSpillMaxBytes());
+    }
+
+    private final SpillJournal _journal;
+    private final boolean _rawDocs;
+
+    // Only used by the reader thread.
+    private final DefaultDBEncoder _encoder = new DefaultDBEncoder();
+}
+
@@ -0,0 +1,169 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deftlabs.cursor.mongo;
+
+// Java
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+
+/**
+ * An append only journal of records in memory mapped segment files. There is one
+ * writer and the records are read back in order. A segment file is deleted once all
+ * its records have been read. A record is a length (int) followed by the bytes.
+ *
+ * The journal is an overflow buffer, not a durable queue: the segments are deleted
+ * when it is closed.
+ */
+final class SpillJournal {
+
+    /**
+     * Append a record. This call blocks while the journal is at its byte limit.
+     * @throws InterruptedException If interrupted or the journal is closed.
+     */
+    synchronized void append(final byte [] pRecord) throws InterruptedException {
+        while (_maxBytes > 0 && _bytes > 0 && _bytes + pRecord.length > _maxBytes && !_closed) wait();
+        if (_closed) throw new InterruptedException();
+
+        final int length = RECORD_HEADER + pRecord.length;
+        if (_write == null || _write._buffer.remaining() < length) _write = roll(length);
+
+        _write._buffer.putInt(pRecord.length);
+        _write._buffer.put(pRecord);
+        _write._written++;
+
+        _bytes += pRecord.length;
+        _count++;
+    }
+
+    /**
+     * Returns the next record or null if the journal is empty.
+     */
+    synchronized byte [] poll() {
+        while (!_segments.isEmpty()) {
+            final Segment head = _segments.getFirst();
+
+            if (head._read < head._written) {
+                final byte [] record = new byte[head._readBuffer.getInt()];
+                head._readBuffer.get(record);
+                head._read++;
+
+                _bytes -= record.length;
+                _count--;
+                if (_maxBytes > 0) notifyAll();
+                return record;
+            }
+
+            if (head == _write) return null;
+
+            _segments.removeFirst();
+            head.delete();
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the number of records in the journal.
+     */
+    int size() { return _count; }
+
+    boolean isEmpty() { return _count == 0; }
+
+    /**
+     * Delete the segments. A blocked append throws an InterruptedException.
+     */
+    synchronized void close() {
+        _closed = true;
+        for (final Segment segment : _segments) segment.delete();
+        _segments.clear();
+        _write = null;
+        _bytes = 0;
+        _count = 0;
+        notifyAll();
+    }
+
+    /**
+     * Start a new segment. A record larger than the segment size gets a segment of its own.
+     */
+    private Segment roll(final int pLength) {
+        try {
+            final Segment segment = new Segment(File.createTempFile(_prefix, SUFFIX, _directory), Math.max(_segmentSize, pLength));
+            _segments.addLast(segment);
+            return segment;
+        } catch (final IOException ioe) { throw new TailableCursorException("Unable to create spill segment in: " + _directory, ioe); }
+    }
+
+    private static final class Segment {
+
+        /**
+         * The mapping is released when the buffers are collected. Deleting the file
+         * while it is mapped is fine on unix systems.
+         */
+        private void delete() { _file.delete(); }
+
+        private Segment(final File pFile, final int pSize) throws IOException {
+            _file = pFile;
+
+            final RandomAccessFile raf = new RandomAccessFile(pFile, "rw");
+            try {
+                _buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, pSize);
+                _readBuffer = _buffer.duplicate();
+            } finally { raf.close(); }
+        }
+
+        private final File _file;
+        private final MappedByteBuffer _buffer;
+        private final ByteBuffer _readBuffer;
+        private int _written;
+        private int _read;
+    }
+
+    /**
+     * Construct a new object.
+     * @param pDirectory The directory the segment files are created in.
+     * @param pPrefix The segment file name prefix.
+     * @param pSegmentSize The segment file size in bytes.
+     * @param pMaxBytes The maximum bytes of records in the journal (zero for no limit).
+     */
+    SpillJournal(final File pDirectory, final String pPrefix, final int pSegmentSize, final long pMaxBytes) {
+        _directory = pDirectory;
+        _prefix = pPrefix;
+        _segmentSize = pSegmentSize;
+        _maxBytes = pMaxBytes;
+    }
+
+    private final File _directory;
+    private final String _prefix;
+    private final int _segmentSize;
+    private final long _maxBytes;
+
+    private final LinkedList<Segment> _segments = new LinkedList<Segment>();
+    private Segment _write;
+    private long _bytes;
+    private volatile int _count;
+    private boolean _closed;
+
+    private static final int RECORD_HEADER = 4;
+    private static final String SUFFIX = ".spill";
+}
+
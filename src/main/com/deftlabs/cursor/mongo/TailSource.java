@@ -0,0 +1,71 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+
+/**
+ * Where a tailable cursor reads from. MongoTailSource uses the driver and
+ * MemoryTailSource is an in-process capped collection for tests and benchmarks.
+ * The database and collection come from the cursor options.
+ */
+public interface TailSource {
+
+    /**
+     * Create the capped collection if it does not exist (and that is allowed by the
+     * options) or verify the existing collection is capped.
+     * @throws TailableCursorException If the collection is missing or not capped.
+     */
+    public void verifyCollection(final TailableCursorOptions pOptions);
+
+    /**
+     * Open a tailable cursor in natural order.
+     * @param pOptions The cursor options (the oplog replay and raw docs flags are used).
+     * @param pQuery The query.
+     * @param pFields The projection or null for all fields.
+     * @param pAwaitData True to block in hasNext until there is data, false to return
+     * false when there is none (the cursor stays open).
+     */
+    public TailSourceCursor open(   final TailableCursorOptions pOptions,
+                                    final DBObject pQuery,
+                                    final DBObject pFields,
+                                    final boolean pAwaitData);
+
+    /**
+     * Returns the newest doc in the collection (with the projection) or null if
+     * the collection is empty.
+     */
+    public DBObject findNewest(final TailableCursorOptions pOptions, final DBObject pFields);
+
+    /**
+     * Returns the oldest doc in the collection (with the projection) or null if
+     * the collection is empty.
+     */
+    public DBObject findOldest(final TailableCursorOptions pOptions, final DBObject pFields);
+
+    /**
+     * Returns the number of docs in the collection.
+     */
+    public long count(final TailableCursorOptions pOptions);
+
+    /**
+     * Release the source. Open cursors stop returning docs.
+     */
+    public void close();
+}
+
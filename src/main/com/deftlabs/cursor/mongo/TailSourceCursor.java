@@ -0,0 +1,51 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+
+/**
+ * A tailable cursor opened by a TailSource. Cursors are only used by one thread
+ * at a time.
+ */
+public interface TailSourceCursor {
+
+    /**
+     * Returns true if there is a doc. With await data this blocks until there is a
+     * doc or the cursor dies.
+     */
+    public boolean hasNext();
+
+    public DBObject next();
+
+    /**
+     * Returns true if the cursor can't return any more docs (e.g., the collection was
+     * empty when it was opened or its position was overwritten). A new cursor must
+     * be opened.
+     */
+    public boolean isDead();
+
+    /**
+     * Returns true if the docs already fetched from the source have all been returned,
+     * so the next hasNext call may have to wait.
+     */
+    public boolean endOfBatch();
+
+    public void close();
+}
+
@@ -21,6 +21,7 @@ import com.mongodb.DBObject;
 
 // Java
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The tailable cursor interface.
@@ -35,6 +36,48 @@ public abstract class TailableCursor {
      */
     public abstract DBObject nextDoc() throws InterruptedException;
 
+    /**
+     * Returns the next object in the cursor as a typed oplog entry. This call blocks
+     * until an object is available.
+     * @throws InterruptedException
+     */
+    public OplogEntry nextEntry() throws InterruptedException { return new OplogEntry(nextDoc()); }
+
+    /**
+     * Returns the next object in the cursor, waiting up to the timeout for one to be
+     * available. This method should not be used in conjunction with the doc or batch listeners.
+     * @return The object or null if the timeout expired.
+     * @throws InterruptedException
+     */
+    public abstract DBObject pollDoc(final long pTimeout, final TimeUnit pUnit) throws InterruptedException;
+
+    /**
+     * Returns the next object in the cursor if one is available, otherwise null. This call
+     * does not block. This method should not be used in conjunction with the doc or batch listeners.
+     */
+    public abstract DBObject tryNextDoc();
+
+    /**
+     * Returns a future for the next object in the cursor. The future is completed by the
+     * reader thread, so a consumer can wait on the tail without holding a thread. This
+     * method should not be used in conjunction with the doc or batch listeners.
+     */
+    public abstract TailableCursorFuture nextDocAsync();
+
+    /**
+     * Drains up to pMax available objects into the list. This call blocks until at least
+     * one object is available or the timeout expires. This method should not be used in
+     * conjunction with the doc or batch listeners.
+     * @param pDocs The list the objects are added to.
+     * @param pMax The maximum number of objects to add.
+     * @return The number of objects added (zero if the timeout expired).
+     * @throws InterruptedException
+     */
+    public abstract int nextDocs(   final List<DBObject> pDocs,
+                                    final int pMax,
+                                    final long pTimeout,
+                                    final TimeUnit pUnit) throws InterruptedException;
+
     /**
      * Called to start the tailable cursor.
      */
@@ -46,6 +89,23 @@ public abstract class TailableCursor {
      */
     public abstract void stop();
 
+    /**
+     * Returns a snapshot of the cursor metrics. This does not query the server: the
+     * lag is measured against the newest doc the reader has read.
+     */
+    public abstract TailableCursorMetrics getMetrics();
+
+    /**
+     * Called to stop the tailable cursor gracefully. The reader stops fetching, then the
+     * docs already read are given to the consumers (nextDoc/nextDocs callers and the
+     * listeners) until they are all handled or the timeout expires. The checkpoint is then
+     * saved and the cursor is closed.
+     * @return True if all the docs read were handled before the timeout. If false, the
+     * docs that were not handled are dropped (and not acknowledged).
+     * @throws InterruptedException
+     */
+    public abstract boolean stop(final long pTimeout, final TimeUnit pUnit) throws InterruptedException;
+
     /**
      * Returns true if start has been called and is running properly.
      */
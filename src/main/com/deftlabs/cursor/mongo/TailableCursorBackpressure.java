@@ -0,0 +1,40 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+/**
+ * What the reader does when a dispatch queue is full.
+ */
+public enum TailableCursorBackpressure {
+
+    /**
+     * Wait for room in the queue. This is the default.
+     */
+    BLOCK,
+
+    /**
+     * Drop the doc. Dropped docs are not passed to the listener.
+     */
+    DROP,
+
+    /**
+     * Call the listener on the reader thread. With a key extractor this can reorder
+     * docs that have the same key.
+     */
+    CALLER_RUNS
+}
+
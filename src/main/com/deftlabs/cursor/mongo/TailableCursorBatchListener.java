@@ -0,0 +1,39 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+
+// Java
+import java.util.List;
+import java.util.EventListener;
+
+/**
+ * The tailable cursor batch listener interface. Used for the event based
+ * notification model when docs are handled a batch at a time.
+ */
+public interface TailableCursorBatchListener extends EventListener {
+
+    /**
+     * Called with the documents pulled from a server batch. The list is reused
+     * by the reader, so copy it if the docs need to be kept after this returns.
+     */
+    public void nextDocs(final List<DBObject> pDocs);
+
+}
+
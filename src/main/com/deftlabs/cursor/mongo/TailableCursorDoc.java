@@ -0,0 +1,55 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+
+/**
+ * A doc tagged with the collection it was read from. Used by the cursor group.
+ */
+public final class TailableCursorDoc {
+
+    public String getDatabaseName() { return _databaseName; }
+    public String getCollectionName() { return _collectionName; }
+    public DBObject getDoc() { return _doc; }
+
+    @Override
+    public String toString() { return _databaseName + "." + _collectionName + ": " + _doc; }
+
+    /**
+     * Acknowledge the doc on the cursor that read it.
+     */
+    void acknowledge() { _cursor.acknowledge(_doc); }
+
+    TailableCursorDoc(  final String pDatabaseName,
+                        final String pCollectionName,
+                        final DBObject pDoc,
+                        final TailableCursorImpl pCursor)
+    {
+        _databaseName = pDatabaseName;
+        _collectionName = pCollectionName;
+        _doc = pDoc;
+        _cursor = pCursor;
+    }
+
+    private final String _databaseName;
+    private final String _collectionName;
+    private final DBObject _doc;
+    private final TailableCursorImpl _cursor;
+}
+
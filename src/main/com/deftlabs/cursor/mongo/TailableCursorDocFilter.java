@@ -0,0 +1,35 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+
+/**
+ * A client side filter/transform stage. The stages run on the reader thread, in the
+ * order they were added, before a doc is buffered or passed to a listener. Dropped
+ * docs never take a buffer slot or wake a consumer.
+ */
+public interface TailableCursorDocFilter {
+
+    /**
+     * Returns the doc to pass on (the same doc or a transformed one) or null to drop
+     * it. A transformed doc should keep the resume field if a checkpoint store is used.
+     */
+    public DBObject filter(final DBObject pDoc);
+}
+
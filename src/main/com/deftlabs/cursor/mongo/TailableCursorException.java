@@ -44,6 +44,7 @@ public class TailableCursorException extends RuntimeException {
 
     public static final String NON_CAPPED_COLLECTION = "1001";
     public static final String NO_COLLECTION_FOUND = "1002";
+    public static final String OVERRUN = "1003";
 
 }
 
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+
+// Java
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CancellationException;
+
+/**
+ * The result of TailableCursor.nextDocAsync. The future is completed by the reader thread
+ * when it buffers a doc (or right away if a doc is already buffered). Listeners added
+ * with addListener are called on the completing thread, so they should not block.
+ * If the cursor stops, the future fails with an InterruptedException.
+ */
+public class TailableCursorFuture implements Future<DBObject> {
+
+    /**
+     * Add a listener that is called once the future is done (completed, failed or
+     * cancelled). If the future is already done, the listener is called right away.
+     */
+    public void addListener(final Runnable pListener) {
+        synchronized (this) {
+            if (!isDone()) { _listeners.add(pListener); return; }
+        }
+        pListener.run();
+    }
+
+    /**
+     * Cancel the future if it has not been given a doc. A cancelled future never takes a
+     * doc, so no doc is lost.
+     */
+    @Override
+    public boolean cancel(final boolean pMayInterruptIfRunning) {
+        if (!_waiters.remove(this)) return false;
+        return done(null, null, true);
+    }
+
+    @Override
+    public synchronized boolean isCancelled() { return _cancelled; }
+
+    @Override
+    public synchronized boolean isDone() { return _done; }
+
+    @Override
+    public synchronized DBObject get() throws InterruptedException, ExecutionException {
+        while (!_done) wait();
+        return result();
+    }
+
+    @Override
+    public synchronized DBObject get(final long pTimeout, final TimeUnit pUnit)
+        throws InterruptedException, ExecutionException, TimeoutException
+    {
+        final long deadline = System.nanoTime() + pUnit.toNanos(pTimeout);
+        while (!_done) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) throw new TimeoutException();
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return result();
+    }
+
+    boolean complete(final DBObject pDoc) { return done(pDoc, null, false); }
+
+    boolean fail(final Throwable pT) { return done(null, pT, false); }
+
+    private DBObject result() throws ExecutionException {
+        if (_cancelled) throw new CancellationException();
+        if (_error != null) throw new ExecutionException(_error);
+        return _doc;
+    }
+
+    private boolean done(final DBObject pDoc, final Throwable pT, final boolean pCancelled) {
+        final List<Runnable> listeners;
+
+        synchronized (this) {
+            if (_done) return false;
+            _doc = pDoc;
+            _error = pT;
+            _cancelled = pCancelled;
+            _done = true;
+            notifyAll();
+            listeners = new ArrayList<Runnable>(_listeners);
+            _listeners.clear();
+        }
+
+        for (final Runnable listener : listeners) listener.run();
+        return true;
+    }
+
+    TailableCursorFuture(final DocWaiters pWaiters) { _waiters = pWaiters; }
+
+    private final DocWaiters _waiters;
+    private final List<Runnable> _listeners = new ArrayList<Runnable>(1);
+
+    private DBObject _doc;
+    private Throwable _error;
+    private boolean _cancelled;
+    private boolean _done;
+}
+
@@ -0,0 +1,210 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+
+// Java
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tails many capped collections with one source (Mongo instance) and a small, fixed
+ * pool of reader threads. Each collection is read a pass at a time: a pass reads what the
+ * server has available (without await data) and is then rescheduled. Idle collections
+ * only cost a scheduled task, not a thread.
+ *
+ * Docs are tagged with their collection and delivered through the group's nextDoc
+ * method or the group listener. If a collection's options have a doc or batch listener,
+ * that listener is called instead. The mongo uri in the collection options is ignored.
+ */
+public class TailableCursorGroup {
+
+    /**
+     * Add a collection to the group. This must be called before start. The capped
+     * collection is verified (or created) when it is added.
+     */
+    public synchronized void add(final TailableCursorOptions pOptions) {
+        if (_running.get()) throw new TailableCursorException("Already running");
+        _members.add(new TailableCursorImpl(pOptions, _source, _host));
+    }
+
+    /**
+     * Returns the next doc from any of the collections. This call blocks until a doc
+     * is available. This method should not be used in conjunction with the group listener.
+     * @throws InterruptedException
+     */
+    public TailableCursorDoc nextDoc() throws InterruptedException {
+        if (_docListener != null) throw new TailableCursorException("Can't use doc listener and nextDoc together");
+        if (!_running.get()) throw new TailableCursorException("Not running");
+        final TailableCursorDoc doc = _docQueue.take();
+        doc.acknowledge();
+        return doc;
+    }
+
+    /**
+     * Called to start the group.
+     */
+    public synchronized void start() {
+        if (_running.get()) throw new TailableCursorException("Already running");
+
+        if (_prefetchCount < 1) throw new TailableCursorException("Invalid prefetch count: " + _prefetchCount);
+
+        if (_docListener == null) _docQueue = new DocRingBuffer<TailableCursorDoc>(_prefetchCount, 0);
+
+        _executor = new ScheduledThreadPoolExecutor(_readerThreads, (_threadFactory != null) ? _threadFactory : new ThreadFactory() {
+            private final AtomicInteger _count = new AtomicInteger(0);
+            @Override
+            public Thread newThread(final Runnable pRunnable) {
+                final Thread thread = new Thread(pRunnable, "TailableCursorGroupReader-" + _count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        _running.set(true);
+
+        for (final TailableCursorImpl member : _members) member.start();
+    }
+
+    /**
+     * Called to stop the group. This closes the cursors and the source and causes an Interrupted exception to be thrown in the nextDoc method.
+     */
+    public synchronized void stop() {
+        if (!_running.get()) throw new TailableCursorException("Not running");
+        _running.set(false);
+
+        // A member stops itself if its overrun policy is to fail.
+        for (final TailableCursorImpl member : _members) if (member.isRunning()) member.stop();
+
+        _executor.shutdownNow();
+
+        try { _executor.awaitTermination(STOP_WAIT_TIME, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException ie) { Thread.currentThread().interrupt(); }
+
+        for (final TailableCursorImpl member : _members) member.closeGroupCursor();
+
+        if (_docQueue != null) _docQueue.close();
+
+        _source.close();
+    }
+
+    /**
+     * Returns true if start has been called and is running properly.
+     */
+    public boolean isRunning() { return _running.get(); }
+
+    /**
+     * Set the group listener. This must be set before start.
+     */
+    public void setDocListener(final TailableCursorGroupListener pV) { _docListener = pV; }
+
+    /**
+     * Set the maximum number of docs buffered ahead of the nextDoc callers (across all
+     * the collections). The default is 1000.
+     */
+    public void setPrefetchCount(final int pV) { _prefetchCount = pV; }
+    public int getPrefetchCount() { return _prefetchCount; }
+
+    /**
+     * Set the factory for the group's reader threads. This must be set before start. If
+     * this is not set, the group creates daemon platform threads.
+     */
+    public void setThreadFactory(final ThreadFactory pV) { _threadFactory = pV; }
+
+    /**
+     * Set the maximum number of docs read from one collection before the reader thread
+     * moves on to another collection. The default is 1000.
+     */
+    public void setMaxDocsPerPass(final int pV) { _maxDocsPerPass = pV; }
+    public int getMaxDocsPerPass() { return _maxDocsPerPass; }
+
+    /**
+     * The group's side of its members. A member that fails is left stopped (the error
+     * listener has been called) while the other members carry on.
+     */
+    private class GroupHost implements ReaderHost {
+        @Override
+        public void schedule(final Runnable pReader, final long pDelay) { TailableCursorGroup.this.schedule(pReader, pDelay); }
+        @Override
+        public int getMaxDocsPerPass() { return _maxDocsPerPass; }
+        @Override
+        public void deliver(final TailableCursorImpl pCursor, final DBObject pDoc) throws InterruptedException
+        { TailableCursorGroup.this.deliver(pCursor, pDoc); }
+        @Override
+        public void failed(final Throwable pT) { }
+    }
+
+    private void schedule(final Runnable pReader, final long pDelay) {
+        if (!_running.get()) return;
+        _executor.schedule(pReader, pDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * A doc is acknowledged (for its cursor's checkpoint) when the listener returns or
+     * nextDoc hands it out, not while it waits in the queue.
+     */
+    private void deliver(final TailableCursorImpl pCursor, final DBObject pDoc) throws InterruptedException {
+        final TailableCursorOptions options = pCursor.getOptions();
+        final TailableCursorDoc doc = new TailableCursorDoc(options.getDatabaseName(), options.getCollectionName(), pDoc, pCursor);
+        if (_docListener != null) { _docListener.nextDoc(doc); doc.acknowledge();
+        } else { _docQueue.put(doc, 0); }
+    }
+
+    /**
+     * Construct a new object.
+     * @param pMongoUri The uri to connect to the server.
+     * @param pReaderThreads The number of reader threads shared by the collections.
+     */
+    public TailableCursorGroup(final String pMongoUri, final int pReaderThreads)
+    { this(new MongoTailSource(pMongoUri), pReaderThreads); }
+
+    /**
+     * Construct a new object on a source. The source is closed when the group stops.
+     * @param pSource The source the collections are read from.
+     * @param pReaderThreads The number of reader threads shared by the collections.
+     */
+    public TailableCursorGroup(final TailSource pSource, final int pReaderThreads) {
+        if (pReaderThreads < 1) throw new TailableCursorException("Invalid reader thread count: " + pReaderThreads);
+        _source = pSource;
+        _readerThreads = pReaderThreads;
+    }
+
+    private final TailSource _source;
+    private final int _readerThreads;
+    private final AtomicBoolean _running = new AtomicBoolean(false);
+    private final List<TailableCursorImpl> _members = new ArrayList<TailableCursorImpl>();
+    private final ReaderHost _host = new GroupHost();
+
+    private ScheduledExecutorService _executor;
+    private volatile DocRingBuffer<TailableCursorDoc> _docQueue;
+    private volatile TailableCursorGroupListener _docListener;
+    private ThreadFactory _threadFactory;
+
+    private int _prefetchCount = 1000;
+    private volatile int _maxDocsPerPass = 1000;
+
+    private static final long STOP_WAIT_TIME = 5000; // time in ms
+}
+
@@ -0,0 +1,35 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Java
+import java.util.EventListener;
+
+/**
+ * The tailable cursor group listener interface. Used for the event
+ * based notification model with a cursor group.
+ */
+public interface TailableCursorGroupListener extends EventListener {
+
+    /**
+     * Called when a document is pulled from one of the group's cursors. This is
+     * called on a group reader thread.
+     */
+    public void nextDoc(final TailableCursorDoc pDoc);
+
+}
+
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+/**
+ * A latency histogram snapshot. Bucket n counts the values greater than 2^(n-1) and
+ * up to 2^n nanoseconds, so the percentiles are upper bounds within a factor of two.
+ */
+public final class TailableCursorHistogram {
+
+    public long getCount() { return _count; }
+
+    public long getSumNanos() { return _sum; }
+
+    public double getMeanNanos() { return (_count == 0) ? 0 : (double)_sum / _count; }
+
+    /**
+     * Returns the upper bound of the bucket that holds the percentile (0 to 100) or
+     * zero if there are no values.
+     */
+    public long getPercentileNanos(final double pPercentile) {
+        if (_count == 0) return 0;
+
+        final long target = Math.max(1, (long)Math.ceil(_count * (pPercentile / 100)));
+        long seen = 0;
+
+        for (int idx=0; idx < _buckets.length; idx++) {
+            seen += _buckets[idx];
+            if (seen >= target) return (idx >= 63) ? Long.MAX_VALUE : (1L << idx);
+        }
+
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns a copy of the bucket counts.
+     */
+    public long [] getBuckets() { return _buckets.clone(); }
+
+    TailableCursorHistogram(final long [] pBuckets, final long pSum) {
+        _buckets = pBuckets;
+        _sum = pSum;
+        long count = 0;
+        for (final long value : pBuckets) count += value;
+        _count = count;
+    }
+
+    private final long [] _buckets;
+    private final long _sum;
+    private final long _count;
+}
+
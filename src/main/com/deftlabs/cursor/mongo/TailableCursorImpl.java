@@ -21,26 +21,19 @@ import com.deftlabs.cursor.mongo.TailableCursor;
 import com.deftlabs.cursor.mongo.TailableCursorOptions;
 
 // Mongo
-import com.mongodb.Bytes;
 import com.mongodb.DBObject;
-import com.mongodb.DBCursor;
-import com.mongodb.DBCollection;
 import com.mongodb.BasicDBObject;
-import com.mongodb.Mongo;
-import com.mongodb.MongoURI;
 import com.mongodb.MongoException;
 
 // Java
-import java.util.Queue;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.net.UnknownHostException;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.locks.LockSupport;
 
 /**
  * The tailable cursor interface.
@@ -54,112 +47,675 @@ public class TailableCursorImpl extends TailableCursor {
      */
     @Override
     public DBObject nextDoc() throws InterruptedException {
-        if (_options.hasDocListener())
-        { throw new TailableCursorException("Can't use doc listener and nextDoc together"); }
+        verifyPull("nextDoc");
+        final DBObject doc = _docQueue.take();
+        acknowledge(doc);
+        return doc;
+    }
 
-        DBObject doc = null;
+    @Override
+    public DBObject pollDoc(final long pTimeout, final TimeUnit pUnit) throws InterruptedException {
+        verifyPull("pollDoc");
+        final DBObject doc = _docQueue.poll(pTimeout, pUnit);
+        if (doc != null) acknowledge(doc);
+        return doc;
+    }
 
-        while (true) {
-            doc = _docQueue.poll();
-            if (doc != null) return doc;
-            lock();
-        }
+    @Override
+    public DBObject tryNextDoc() {
+        verifyPull("tryNextDoc");
+        final DBObject doc = _docQueue.poll();
+        if (doc != null) acknowledge(doc);
+        return doc;
     }
 
-    private void lock() throws InterruptedException {
-        boolean wasInterrupted = false;
+    @Override
+    public TailableCursorFuture nextDocAsync() {
+        verifyPull("nextDocAsync");
 
-        final Thread current = Thread.currentThread();
+        final TailableCursorFuture future = new TailableCursorFuture(_waiters);
+        _waiters.add(future);
+        _waiters.drain();
 
-        _waiters.add(current);
+        // The buffer may have been closed before the future was added (see shutdown).
+        if (_docQueue.isClosed()) _waiters.failAll(new InterruptedException("Not running"));
 
-        while (_waiters.peek() != current || !_locked.compareAndSet(false, true)) {
-            LockSupport.park();
+        return future;
+    }
 
-            // If interrupted, get out of here
-            if (Thread.interrupted()) { wasInterrupted = true; break; }
-        }
+    /**
+     * Throws if the docs are not pulled from the buffer (listeners or a host take them).
+     */
+    private void verifyPull(final String pMethod) {
+        if (_options.hasDocListener() || _options.hasBatchListener())
+        { throw new TailableCursorException("Can't use doc listener and " + pMethod + " together"); }
+
+        if (_host != null) throw new TailableCursorException("Group and publisher members deliver docs through their host");
+    }
+
+    /**
+     * Drains up to pMax docs into the list. This call blocks until at least one
+     * doc is available or the timeout expires.
+     * @return The number of docs added to the list (zero if the timeout expired).
+     * @throws InterruptedException
+     */
+    @Override
+    public int nextDocs(final List<DBObject> pDocs, final int pMax, final long pTimeout, final TimeUnit pUnit)
+        throws InterruptedException
+    {
+        verifyPull("nextDocs");
 
-        _waiters.remove();
+        if (pMax < 1) throw new TailableCursorException("Invalid max docs: " + pMax);
 
-        if (wasInterrupted) { current.interrupt(); throw new InterruptedException(); }
+        final DBObject first = _docQueue.poll(pTimeout, pUnit);
+        if (first == null) return 0;
+
+        pDocs.add(first);
+        final int count = 1 + _docQueue.drainTo(pDocs, pMax - 1);
+        for (int idx=pDocs.size() - count; idx < pDocs.size() - 1; idx++) handled(pDocs.get(idx));
+        acknowledge(pDocs.get(pDocs.size() - 1));
+        return count;
+    }
+
+    /**
+     * Mark the doc as handed to the consumer for the checkpoint store.
+     */
+    void acknowledge(final DBObject pDoc) {
+        if (_partitions != null) _partitions.acknowledge(pDoc);
+        if (_checkpointer == null && !_trackPositions) return;
+        final Object position = pDoc.get(_options.getResumeField());
+        if (_checkpointer != null) _checkpointer.mark(position);
+        if (_trackPositions) _metrics.delivered(position);
     }
 
-    private void unlock() {
-        _locked.set(false);
-        LockSupport.unpark(_waiters.peek());
+    /**
+     * Record a doc handled ahead of a later doc that is acknowledged for both (a batch or
+     * a run of dispatched docs). Only the partition positions need every doc.
+     */
+    void handled(final DBObject pDoc) { if (_partitions != null) _partitions.acknowledge(pDoc); }
+
+    /**
+     * Returns the start time for a listener call (zero if metrics are disabled).
+     */
+    long listenerStart() { return (_metricsEnabled) ? System.nanoTime() : 0; }
+
+    void listenerDone(final long pStart)
+    { if (_metricsEnabled) _metrics.getListenerLatency().record(System.nanoTime() - pStart); }
+
+    @Override
+    public TailableCursorMetrics getMetrics() {
+        return new TailableCursorMetrics(   _metrics,
+                                            (_docQueue != null) ? _docQueue.size() : 0,
+                                            (_docQueue != null) ? _docQueue.capacity() : 0,
+                                            (_docQueue != null) ? _docQueue.getPutWaitNanos() : 0,
+                                            (_dispatcher != null) ? _dispatcher.getDroppedCount() : 0);
     }
 
     /**
-     * Called to start the tailable cursor.
+     * Called to start the tailable cursor. If this fails, the cursor is shut down (as
+     * it is by stop) and can't be started again.
      */
     @Override
     public synchronized void start() {
         if (_running.get()) throw new TailableCursorException("Already running");
+
+        boolean started = false;
+
+        // If a step fails, whatever has already been started is shut down again.
+        try { startAll(); started = true;
+        } finally { if (!started) { _running.set(false); shutdown(); } }
+    }
+
+    private void startAll() {
+        if (_options.hasCheckpointStore()) {
+            _cursorReader.resumeFrom(_options.getCheckpointStore().load(_options.getCheckpointKey()));
+            _checkpointer = new Checkpointer(_options);
+            _checkpointer.start();
+        }
+
+        if (_partitions != null) _partitions.start();
+
+        if (_dispatcher != null) _dispatcher.start();
+
+        if (_options.getJmxEnabled()) { _mxBean = new MetricsMXBean(this, _options); _mxBean.register(); }
+
         _running.set(true);
-        _cursorReader.start();
+
+        if (_host != null) { _host.schedule(new GroupReader(), 0); return; }
+
+        if (_options.hasReaderExecutor()) { _options.getReaderExecutor().execute(_cursorReader); return; }
+
+        final Thread readerThread
+        = _options.newThread(_cursorReader, "TailableCursorReader-" + _options.getDatabaseName() + "." + _options.getCollectionName(), false);
+        _cursorReader.runOn(readerThread);
+        readerThread.start();
     }
 
     /**
      * Called to stop the tailable cursor. This causes an Interrupted exception to
-     * be thrown in the nextDoc method.
+     * be thrown in the nextDoc method once the buffered docs have been returned.
      */
     @Override
     public void stop() {
-        if (!_running.get()) throw new TailableCursorException("Not running");
-        _running.set(false);
-        if (_cursorReader != null) _cursorReader.interrupt();
-        for (final Thread t : _waiters) t.interrupt();
+        if (!_running.compareAndSet(true, false)) throw new TailableCursorException("Not running");
+        shutdown();
+    }
+
+    @Override
+    public boolean stop(final long pTimeout, final TimeUnit pUnit) throws InterruptedException {
+        if (!_running.compareAndSet(true, false)) throw new TailableCursorException("Not running");
+
+        final long deadline = System.nanoTime() + pUnit.toNanos(pTimeout);
+        boolean drained = false;
+
+        try {
+            while (!(drained = isDrained()) && deadline - System.nanoTime() > 0) Thread.sleep(DRAIN_POLL_TIME);
+        } finally {
+            // Whatever is left after the deadline is dropped.
+            if (!drained && _docQueue != null) while (_docQueue.poll() != null) { }
+            shutdown();
+        }
+
+        return drained;
+    }
+
+    /**
+     * Returns true if the reader is not delivering a doc (once stopped, it does not start
+     * another) and the buffered and dispatched docs have all been handled.
+     */
+    private boolean isDrained() {
+        return  !_delivering
+                && (_docQueue == null || _docQueue.size() == 0)
+                && (_dispatcher == null || _dispatcher.isIdle());
+    }
+
+    /**
+     * Stop the threads, save the checkpoint and close the source if the cursor created it.
+     */
+    private void shutdown() {
+        _cursorReader.interrupt();
+        if (_docQueue != null) { _docQueue.close(); _waiters.drain(); _waiters.failAll(new InterruptedException("Not running")); }
+        if (_dispatcher != null) _dispatcher.shutdown();
+        if (_checkpointer != null) {
+            // The last save can fail, but the rest of the cursor is still shut down.
+            try { _checkpointer.shutdown();
+            } catch (final Throwable t) { reportException(t); }
+        }
+        if (_partitions != null) _partitions.shutdown();
+        if (_mxBean != null) _mxBean.unregister();
+        if (_ownsSource) _source.close();
+    }
+
+    /**
+     * Either log the exception or pass to the error listener.
+     * @return True if the caller should exit.
+     */
+    boolean reportException(final Throwable pT) { return _cursorReader.reportException(pT); }
+
+    TailableCursorOptions getOptions() { return _options; }
+
+    /**
+     * Returns the number of consumer group partitions the cursor holds.
+     */
+    int partitionsHeld() { return (_partitions != null) ? _partitions.held() : 0; }
+
+    /**
+     * Close the cursor left open by the group reader. The group calls this once its
+     * reader threads have exited.
+     */
+    void closeGroupCursor() { _cursorReader.closeCursor(); }
+
+    private class DispatchOwner implements DocDispatcher.Owner {
+        @Override
+        public void acknowledge(final DBObject pDoc) { TailableCursorImpl.this.acknowledge(pDoc); }
+        @Override
+        public void handled(final DBObject pDoc) { TailableCursorImpl.this.handled(pDoc); }
+        @Override
+        public boolean reportException(final Throwable pT) { return TailableCursorImpl.this.reportException(pT); }
+        @Override
+        public long listenerStart() { return TailableCursorImpl.this.listenerStart(); }
+        @Override
+        public void listenerDone(final long pStart) { TailableCursorImpl.this.listenerDone(pStart); }
     }
 
     /**
-     * A Thread that pulls the data off the cursor.
+     * Reads one pass at a time on a group reader thread. The cursor is kept open
+     * between passes and the pass is rescheduled right away if it read docs, otherwise
+     * after the no doc backoff.
      */
-    private class CursorReader extends Thread {
+    private class GroupReader implements Runnable {
         @Override
         public void run() {
+            if (!_running.get()) { _cursorReader.closeCursor(); return; }
+
+            long delay;
+
+            try {
+                delay = _cursorReader._backoff.next(_cursorReader.readPass(_host.getMaxDocsPerPass()) > 0);
+            } catch (final InterruptedException ie) { return;
+            } catch (final Throwable t) {
+                if (!_running.get() || _cursorReader.reportException(t)) return;
+                delay = _options.getErrorSleepTime();
+            }
+
+            // A pass that ends after stop closes its cursor (a parked member is not run again).
+            if (_running.get()) _host.schedule(this, delay);
+            else _cursorReader.closeCursor();
+        }
+    }
+
+    /**
+     * Pulls the data off the cursor. In the dedicated mode this runs on its own thread
+     * and blocks on the server (await data). In a group the passes are run by GroupReader.
+     */
+    private class CursorReader implements Runnable {
+        @Override
+        public void run() {
+            runOn(Thread.currentThread());
+            try { readLoop();
+            } finally { closeCursor(); done(); }
+        }
+
+        /**
+         * The cursor is kept open between passes, so a new cursor (and the overrun check)
+         * is only needed after the cursor dies or is not found.
+         */
+        private void readLoop() {
             while (_running.get()) {
                 try {
-                    _mongo.getDB(_options.getDatabaseName()).requestStart();
-                    final DBCursor cur = createCursor();
-                    try {
-                        while (_running.get() && cur.hasNext()) {
-                            final DBObject doc = cur.next();
-
-                            if (doc == null) break;
-
-                            if (_options.hasDocListener()) { _options.getDocListener().nextDoc(doc);
-                            } else { _docQueue.put(doc); unlock(); }
-                        }
-                    } finally {
-                        try { if (cur != null) cur.close(); } catch (final Throwable t) { /* nada */ }
-                        try { _mongo.getDB(_options.getDatabaseName()).requestDone(); } catch (final Throwable t) { /* nada */ }
-                    }
+                    final int read = readPass(Integer.MAX_VALUE);
 
-                    if (_options.getNoDocSleepTime() > 0) Thread.sleep(_options.getNoDocSleepTime());
+                    final long sleep = _backoff.next(read > 0);
+                    if (sleep > 0) Thread.sleep(sleep);
 
                 } catch (final MongoException.CursorNotFound cnf) {
                     if (_running.get()) if (handleException(cnf)) break;
                 } catch (final InterruptedException ie) { break;
-                } catch (final Throwable t) { if (handleException(t)) break; }
+                } catch (final Throwable t) { if (!_running.get() || handleException(t)) break; }
             }
         }
 
-        private DBCursor createCursor() {
-            final DBCollection col = _mongo.getDB(_options.getDatabaseName()).getCollection(_options.getCollectionName());
+        /**
+         * Record the thread the loop runs on, so stop can interrupt it.
+         */
+        private synchronized void runOn(final Thread pThread) { _thread = pThread; }
+
+        private synchronized void interrupt() { if (_thread != null) _thread.interrupt(); }
 
-            return col.find(_options.getInitialQuery()).sort(new BasicDBObject("$natural", 1)).addOption(Bytes.QUERYOPTION_TAILABLE).addOption(Bytes.QUERYOPTION_AWAITDATA);
+        /**
+         * Forget the thread. An executor thread goes back to its pool, so the interrupt
+         * left by stop is cleared.
+         */
+        private synchronized void done() {
+            if (_options.hasReaderExecutor() && !_running.get()) Thread.interrupted();
+            _thread = null;
         }
 
         /**
-         * Either log the exception or pass to the handler.
+         * Read docs until the cursor has no more available, the cursor ends or pMaxDocs
+         * have been read. A dead cursor is closed so the next pass resumes on a new one.
+         * @return The number of docs read.
+         */
+        int readPass(final int pMaxDocs) throws InterruptedException {
+            if (_partitions != null) rewind();
+
+            if (_cursor == null) _cursor = createCursor();
+
+            int read = 0;
+
+            try {
+                while (_running.get() && read < pMaxDocs && !rewindPending() && _cursor.hasNext()) {
+                    final DBObject doc = _cursor.next();
+
+                    // A doc read after stop is not delivered (or tracked), so it is read again on resume.
+                    if (doc == null || !_running.get()) break;
+
+                    read++;
+
+                    final int size = (_measureBytes) ? BsonSize.estimate(doc) : 0;
+                    _metrics.docRead(size);
+
+                    trackPosition(doc);
+
+                    final DBObject filtered = filter(doc);
+                    if (filtered == null) { _metrics.docFiltered(); continue; }
+
+                    _delivering = true;
+                    try { deliver(filtered, (filtered == doc) ? size : -1);
+                    } finally { _delivering = false; }
+                }
+
+                if (_cursor.isDead()) closeCursor();
+
+            } catch (final InterruptedException ie) { closeCursor(); throw ie;
+            } catch (final RuntimeException re) {
+                if (re instanceof MongoException.CursorNotFound) _metrics.cursorNotFound();
+                closeCursor();
+                throw re;
+            } catch (final Error e) { closeCursor(); throw e;
+            } finally {
+                _delivering = true;
+                try { flushBatch();
+                } catch (final Throwable t) { reportException(t);
+                } finally { _delivering = false; }
+            }
+
+            return read;
+        }
+
+        /**
+         * @param pSize The approximate size of the doc or -1 if it has not been measured.
+         */
+        private void deliver(final DBObject pDoc, final int pSize) throws InterruptedException {
+            if (_options.hasBatchListener()) { _batch.add(pDoc); if (endOfBatch(_cursor)) flushBatch();
+            } else if (_dispatcher != null) { _dispatcher.dispatch(pDoc);
+            } else if (_options.hasDocListener()) {
+                final long start = listenerStart();
+                _options.getDocListener().nextDoc(pDoc);
+                listenerDone(start);
+                acknowledge(pDoc);
+            } else if (_host != null) { _host.deliver(TailableCursorImpl.this, pDoc);
+            } else {
+                _docQueue.put(pDoc, docSize(pDoc, pSize));
+                if (_waiters.hasWaiters()) _waiters.drain();
+            }
+        }
+
+        /**
+         * Run the doc through the partition, dedup and filter stages.
+         * @return The doc to deliver or null if it was dropped.
+         */
+        private DBObject filter(final DBObject pDoc) {
+            if (_partitions != null && !_partitions.accept(pDoc)) return null;
+            if (_dedup != null && !_dedup.add(pDoc)) return null;
+            DBObject doc = pDoc;
+            for (int idx=0; idx < _docFilters.length && doc != null; idx++) doc = _docFilters[idx].filter(doc);
+            return doc;
+        }
+
+        private boolean rewindPending() { return _partitions != null && _partitions.hasRewind(); }
+
+        /**
+         * Go back to the position of a partition taken from another member if the reader
+         * has passed it. The docs of the other partitions are not delivered again because
+         * they are not after their partition positions.
+         */
+        private void rewind() {
+            final Object position = _partitions.takeRewind();
+            if (position == null || _lastPosition == null) return;
+
+            try { if (DocMatcher.compare(position, _lastPosition) >= 0) return;
+            } catch (final TailableCursorException tce) { return; } // the values can't be compared
+
+            closeCursor();
+            _lastPosition = position;
+        }
+
+        void closeCursor() {
+            if (_cursor == null) return;
+            try { _cursor.close(); } catch (final Throwable t) { /* nada */ }
+            _cursor = null;
+        }
+
+        /**
+         * Returns true if the docs already fetched from the server have been read or the
+         * pending batch has reached the prefetch count.
+         */
+        private boolean endOfBatch(final TailSourceCursor pCur)
+        { return _batch.size() >= _options.getPrefetchCount() || pCur.endOfBatch(); }
+
+        private void flushBatch() {
+            if (_batch.isEmpty()) return;
+            try {
+                final long start = listenerStart();
+                _options.getBatchListener().nextDocs(_batch);
+                listenerDone(start);
+                for (int idx=0; idx < _batch.size() - 1; idx++) handled(_batch.get(idx));
+                acknowledge(_batch.get(_batch.size() - 1));
+            } finally { _batch.clear(); }
+        }
+
+        private int docSize(final DBObject pDoc, final int pSize) {
+            if (!_docQueue.hasByteBudget()) return 0;
+            return (pSize >= 0) ? pSize : BsonSize.estimate(pDoc);
+        }
+
+        /**
+         * Group cursors do not use await data, so hasNext returns false when there are
+         * no docs instead of holding a group reader thread.
+         */
+        private TailSourceCursor createCursor() throws InterruptedException {
+            _metrics.cursorCreated();
+            if (_startPending) findStart();
+            if (_lastPosition != null) checkOverrun();
+            return _source.open(_options, createQuery(), _fields, _host == null);
+        }
+
+        /**
+         * Find where the first cursor starts. A checkpoint position wins over the start
+         * position. FROM_NOW starts after the newest doc, so the docs already in the
+         * collection are not read. The other positions start at a value (see createQuery).
+         */
+        private void findStart() {
+            if (_lastPosition != null) { _startPending = false; return; }
+
+            final String field = _options.getResumeField();
+            final DBObject fields = new BasicDBObject(field, 1);
+
+            switch (_options.getStartPosition()) {
+                case FROM_NOW:
+                    final DBObject newestDoc = _source.findNewest(_options, fields);
+                    if (newestDoc != null) _lastPosition = newestDoc.get(field);
+                    break;
+
+                case FROM_TIMESTAMP:
+                    // The position type is taken from the collection, so wait for a doc.
+                    final DBObject oldestDoc = _source.findOldest(_options, fields);
+                    if (oldestDoc == null || oldestDoc.get(field) == null) return;
+                    _startFrom = TailableCursorMetrics.positionAt(oldestDoc.get(field), _options.getStartTime().getTime());
+                    if (_startFrom == null) {
+                        _logger.log(Level.WARNING, "Resume field has no time, starting from the oldest doc - field: " + field
+                                                    + " - value: " + oldestDoc.get(field));
+                    }
+                    break;
+
+                case FROM_ID: _startFrom = _options.getStartId(); break;
+
+                default: break;
+            }
+
+            _startPending = false;
+        }
+
+        /**
+         * Check if the collection has lapped the reader: the last doc read is no longer
+         * in the collection because the oldest doc is after it. Docs read but not yet
+         * delivered are in the buffer, so the last read position is the one that counts.
+         * This is skipped when the initial query (or an oplog filter) selects docs: the
+         * last position is then the last doc that matched, and docs that did not match
+         * may have been overwritten after it without any doc having been lost.
+         * @throws InterruptedException If the policy is to fail (the cursor is stopped).
+         */
+        private void checkOverrun() throws InterruptedException {
+            if (!_initialQuery.keySet().isEmpty()) return;
+
+            final String field = _options.getResumeField();
+            final DBObject fields = new BasicDBObject(field, 1);
+
+            final DBObject oldestDoc = _source.findOldest(_options, fields);
+            final Object oldest = (oldestDoc == null) ? null : oldestDoc.get(field);
+            if (oldest == null) return;
+
+            try { if (DocMatcher.compare(oldest, _lastPosition) <= 0) return;
+            } catch (final TailableCursorException tce) { return; } // the values can't be compared
+
+            final long lost = estimateLostDocs(oldest, fields);
+            _metrics.overrun(lost);
+
+            // The head is found before the listener is called, so docs inserted after the
+            // listener has been told are not skipped.
+            final DBObject newestDoc
+            = (_options.getOverrunPolicy() == TailableCursorOverrunPolicy.SKIP_TO_HEAD) ? _source.findNewest(_options, fields) : null;
+
+            if (_options.hasOverrunListener()) {
+                try { _options.getOverrunListener().onOverrun(_lastPosition, oldest, lost);
+                } catch (final Throwable t) { reportException(t); }
+            }
+
+            switch (_options.getOverrunPolicy()) {
+                case SKIP_TO_HEAD:
+                    if (newestDoc != null && newestDoc.get(field) != null) _lastPosition = newestDoc.get(field);
+                    return;
+
+                case FAIL:
+                    final TailableCursorException error
+                    = new TailableCursorException(  "Capped collection overrun - db: "
+                                                    + _options.getDatabaseName()
+                                                    + " - collection: "
+                                                    + _options.getCollectionName()
+                                                    + " - last: " + _lastPosition
+                                                    + " - oldest: " + oldest
+                                                    + " (" + TailableCursorException.OVERRUN + ")",
+                                                    TailableCursorException.OVERRUN);
+                    reportException(error);
+                    if (_running.compareAndSet(true, false)) { shutdown(); if (_host != null) _host.failed(error); }
+                    throw new InterruptedException("Capped collection overrun");
+
+                default: return;
+            }
+        }
+
+        /**
+         * Returns the estimated number of docs between the last doc read and the oldest
+         * doc, or -1. Integer positions are assumed to be dense. For time based positions
+         * the insert rate is taken from the docs still in the collection.
+         */
+        private long estimateLostDocs(final Object pOldest, final DBObject pFields) {
+            if (isIntegral(pOldest) && isIntegral(_lastPosition))
+            { return Math.max(0, ((Number)pOldest).longValue() - ((Number)_lastPosition).longValue() - 1); }
+
+            final long oldestTime = TailableCursorMetrics.positionTime(pOldest);
+            final long lastTime = TailableCursorMetrics.positionTime(_lastPosition);
+            if (oldestTime < 0 || lastTime < 0) return -1;
+
+            final DBObject newestDoc = _source.findNewest(_options, pFields);
+            final long newestTime
+            = (newestDoc == null) ? -1 : TailableCursorMetrics.positionTime(newestDoc.get(_options.getResumeField()));
+            if (newestTime <= oldestTime) return -1;
+
+            return Math.round(((double)_source.count(_options) * (oldestTime - lastTime)) / (newestTime - oldestTime));
+        }
+
+        private boolean isIntegral(final Object pV) { return pV instanceof Integer || pV instanceof Long; }
+
+        /**
+         * Returns the projection, with the resume field added if the projection is
+         * inclusive and does not have it, or null for all fields.
+         */
+        private DBObject createFields() {
+            if (!_options.hasFields()) return null;
+
+            final DBObject fields = _options.getFields();
+
+            if (!_options.hasResumeField() || fields.containsField(_options.getResumeField())) return fields;
+
+            for (final String key : fields.keySet()) {
+                final Object value = fields.get(key);
+                if (!key.equals("_id") && (Boolean.FALSE.equals(value) || (value instanceof Number && ((Number)value).intValue() == 0)))
+                { return fields; } // exclusive projection
+            }
+
+            final BasicDBObject withResumeField = new BasicDBObject(fields.toMap());
+            withResumeField.put(_options.getResumeField(), 1);
+            return withResumeField;
+        }
+
+        /**
+         * Returns the initial query with the oplog namespace and operation filters added.
+         */
+        private DBObject createInitialQuery() {
+            final DBObject initialQuery = _options.getInitialQuery();
+            if (!_options.hasOplogFilters()) return initialQuery;
+
+            final BasicDBObject filters = new BasicDBObject();
+
+            if (!_options.getOplogNamespaces().isEmpty()) {
+                final List<Object> namespaces = new ArrayList<Object>();
+                for (final String ns : _options.getOplogNamespaces()) {
+                    if (ns.endsWith(".*")) namespaces.add(Pattern.compile("^" + Pattern.quote(ns.substring(0, ns.length() - 1))));
+                    else namespaces.add(ns);
+                }
+                filters.put("ns", new BasicDBObject("$in", namespaces));
+            }
+
+            if (!_options.getOplogOperations().isEmpty()) {
+                final List<String> ops = new ArrayList<String>();
+                for (final OplogOperation op : _options.getOplogOperations()) ops.add(op.getCode());
+                filters.put("op", new BasicDBObject("$in", ops));
+            }
+
+            if (initialQuery.keySet().isEmpty()) return filters;
+            return new BasicDBObject("$and", Arrays.asList(initialQuery, filters));
+        }
+
+        /**
+         * Returns the initial query or, if a doc has already been read, the initial
+         * query restricted to docs after the last position. Before the first doc, a
+         * start value restricts it to docs at or after the value.
+         */
+        private DBObject createQuery() {
+            if (_lastPosition == null && _startFrom == null) return _initialQuery;
+
+            final String field = _options.getResumeField();
+            final DBObject initialQuery = _initialQuery;
+            final BasicDBObject resume = (_lastPosition != null)
+            ? new BasicDBObject(field, new BasicDBObject("$gt", _lastPosition)) : new BasicDBObject(field, new BasicDBObject("$gte", _startFrom));
+
+            if (initialQuery.containsField(field)) return new BasicDBObject("$and", Arrays.asList(initialQuery, resume));
+
+            resume.putAll(initialQuery);
+            return resume;
+        }
+
+        private void resumeFrom(final Object pPosition) { _lastPosition = pPosition; }
+
+        private void trackPosition(final DBObject pDoc) {
+            if (!_options.hasResumeField()) return;
+            final Object position = pDoc.get(_options.getResumeField());
+            if (position == null) return;
+            _lastPosition = position;
+            if (_trackPositions) _metrics.read(position);
+        }
+
+        /**
+         * Either log the exception or pass to the handler and then sleep for the
+         * error sleep time.
          * @param pT The throwable received.
          * @return  True if the thread should exit. False otherwise :-)
          */
         private boolean handleException(final Throwable pT) {
 
+            if (reportException(pT)) return true;
+
+            if (_options.getErrorSleepTime() <= 0) return false;
+
+            try { Thread.sleep(_options.getErrorSleepTime());
+            } catch (final InterruptedException ie) { return true; }
+
+            return false;
+        }
+
+        /**
+         * Either log the exception or pass to the handler.
+         * @param pT The throwable received.
+         * @return  True if the reader should exit. False otherwise.
+         */
+        boolean reportException(final Throwable pT) {
+
             if (pT instanceof InterruptedException) return true;
 
+            _metrics.error();
+
             if (_options.hasErrorListener()) {
                 try {
                     // Call the error listener.
@@ -170,71 +726,159 @@ public class TailableCursorImpl extends TailableCursor {
                 }
             } else { _logger.log(Level.SEVERE, pT.getMessage(), pT); }
 
-            if (_options.getErrorSleepTime() <= 0) return false;
-
-            try { Thread.sleep(_options.getErrorSleepTime());
-            } catch (final InterruptedException ie) { return true; }
-
             return false;
         }
+
+        private TailSourceCursor _cursor;
+        private Thread _thread;
+        private final Backoff _backoff = new Backoff(_options);
+        private final DBObject _fields = createFields();
+        private final DBObject _initialQuery = createInitialQuery();
+        private final DedupWindow _dedup = (_options.getDedupWindow() > 0)
+        ? new DedupWindow(_options.getDedupWindow(), _options.getDedupWindowTime(), _options.getDedupKeyExtractor()) : null;
+        private final TailableCursorDocFilter [] _docFilters
+        = _options.getDocFilters().toArray(new TailableCursorDocFilter[_options.getDocFilters().size()]);
+        private final List<DBObject> _batch = new ArrayList<DBObject>();
+        private final boolean _measureBytes = _metricsEnabled || _options.getPrefetchBytes() > 0;
+        private Object _lastPosition;
+        private Object _startFrom;
+        private boolean _startPending = _options.getStartPosition() != TailableCursorStartPosition.FROM_OLDEST;
     }
 
     @Override
     public boolean isRunning() { return _running.get(); }
 
+    /**
+     * The prefetch buffer spills to disk if a spill directory is set.
+     */
+    private DocRingBuffer<DBObject> createDocQueue() {
+        final LatencyRecorder latency = (_metricsEnabled) ? _metrics.getHandoffLatency() : null;
+        if (_options.hasSpillDirectory()) return new SpillBuffer(_options, latency);
+        return new DocRingBuffer<DBObject>(_options.getPrefetchCount(), _options.getPrefetchBytes(), _options.getWaitStrategy(), latency);
+    }
+
     /**
      * Construct a new object.
      * @param pOptions The cursor options.
      */
-    public TailableCursorImpl(final TailableCursorOptions pOptions) {
+    public TailableCursorImpl(final TailableCursorOptions pOptions) { this(pOptions, MongoTailSource.create(pOptions), null, true); }
+
+    /**
+     * Construct a new object that reads from the source (the mongo uri in the
+     * options is ignored).
+     * @param pOptions The cursor options.
+     * @param pSource The source.
+     */
+    public TailableCursorImpl(final TailableCursorOptions pOptions, final TailSource pSource) { this(pOptions, pSource, null, false); }
+
+    /**
+     * Construct a group or publisher member. The host's source is used and the docs
+     * are read on the host's reader threads.
+     */
+    TailableCursorImpl(final TailableCursorOptions pOptions, final TailSource pSource, final ReaderHost pHost)
+    { this(pOptions, pSource, pHost, false); }
 
+    /**
+     * @param pOwnsSource True if the source was created for the cursor. It is closed when
+     * the cursor stops or, if the cursor can't be created, before this throws.
+     */
+    private TailableCursorImpl( final TailableCursorOptions pOptions,
+                                final TailSource pSource,
+                                final ReaderHost pHost,
+                                final boolean pOwnsSource)
+    {
         _options = pOptions;
+        _host = pHost;
+        _source = pSource;
+        _ownsSource = pOwnsSource;
+
+        boolean created = false;
 
         try {
-            _mongo = new Mongo(new MongoURI(_options.getMongoUri()));
-
-            if (!_mongo.getDB(_options.getDatabaseName()).collectionExists(_options.getCollectionName())) {
-                if (_options.getAssertIfNoCappedCollection()) {
-                    throw new TailableCursorException(  "No capped collection found - db: "
-                                                        + _options.getDatabaseName()
-                                                        + " - collection: "
-                                                        + _options.getCollectionName()
-                                                        + " (" + TailableCursorException.NO_COLLECTION_FOUND + ")",
-                                                        TailableCursorException.NO_COLLECTION_FOUND);
-                }
+            _metricsEnabled = _options.getMetricsEnabled();
+            _trackPositions = _metricsEnabled && _options.hasResumeField();
 
-                final BasicDBObject options = new BasicDBObject("capped", true);
-                options.put("size", _options.getDefaultCappedCollectionSize());
-                _mongo.getDB(_options.getDatabaseName()).createCollection(_options.getCollectionName(), options);
-            } else {
-                // Verify the collection is capped.
-                if (!_mongo.getDB(_options.getDatabaseName()).getCollection(_options.getCollectionName()).isCapped()) {
-                    throw new TailableCursorException(  "Not a capped collection - db: "
-                                                        + _options.getDatabaseName()
-                                                        + " - collection: "
-                                                        + _options.getCollectionName()
-                                                        + " (" + TailableCursorException.NON_CAPPED_COLLECTION + ")",
-                                                        TailableCursorException.NON_CAPPED_COLLECTION);
-                }
-            }
+            if (_options.hasDocListener() && _options.hasBatchListener())
+            { throw new TailableCursorException("Can't use doc listener and batch listener together"); }
 
+            if (_options.hasCheckpointStore() && !_options.hasResumeField())
+            { throw new TailableCursorException("A resume field is required with a checkpoint store"); }
 
-            _cursorReader = new CursorReader();
+            if (_options.getStartPosition() != TailableCursorStartPosition.FROM_OLDEST && !_options.hasResumeField())
+            { throw new TailableCursorException("A resume field is required with a start position of: " + _options.getStartPosition()); }
 
-        } catch (final UnknownHostException uhe) {
-            throw new TailableCursorException("Host not found - uri: " + _options.getMongoUri(), uhe);
-        } catch (final Throwable t) { throw new TailableCursorException(t); }
+            if (_options.getStartPosition() == TailableCursorStartPosition.FROM_TIMESTAMP && _options.getStartTime() == null)
+            { throw new TailableCursorException("A start time is required with a start position of: FROM_TIMESTAMP"); }
+
+            if (_options.getStartPosition() == TailableCursorStartPosition.FROM_ID && _options.getStartId() == null)
+            { throw new TailableCursorException("A start id is required with a start position of: FROM_ID"); }
+
+            if (_options.hasLeaseStore() && !_options.hasResumeField())
+            { throw new TailableCursorException("A resume field is required with a lease store"); }
+
+            if (!_options.hasResumeField()
+                && (_options.hasOverrunListener() || _options.getOverrunPolicy() != TailableCursorOverrunPolicy.RESUME_FROM_OLDEST))
+            { throw new TailableCursorException("A resume field is required with an overrun policy or listener"); }
+
+            if (_options.hasLeaseStore() && _options.getPartitionCount() < 1)
+            { throw new TailableCursorException("Invalid partition count: " + _options.getPartitionCount()); }
+
+            if (_options.getDedupWindow() < 0)
+            { throw new TailableCursorException("Invalid dedup window: " + _options.getDedupWindow()); }
+
+            if (_options.getPrefetchCount() < 1)
+            { throw new TailableCursorException("Invalid prefetch count: " + _options.getPrefetchCount()); }
+
+            if (_options.hasSpillDirectory() && !_options.getSpillDirectory().isDirectory())
+            { throw new TailableCursorException("Invalid spill directory: " + _options.getSpillDirectory()); }
+
+            if (_options.hasSpillDirectory() && _options.getSpillSegmentSize() < 1)
+            { throw new TailableCursorException("Invalid spill segment size: " + _options.getSpillSegmentSize()); }
+
+            if (_options.getDispatchThreads() > 0 && !_options.hasDocListener())
+            { throw new TailableCursorException("Dispatch threads require a doc listener"); }
+
+            if (_options.getDispatchThreads() > 0 && _options.getDispatchQueueSize() < 1)
+            { throw new TailableCursorException("Invalid dispatch queue size: " + _options.getDispatchQueueSize()); }
+
+            _partitions = (_options.hasLeaseStore()) ? new PartitionCoordinator(_options) : null;
+
+            _dispatcher = (_options.getDispatchThreads() > 0) ? new DocDispatcher(new DispatchOwner(), _options) : null;
+
+            // Group and publisher members hand their docs to the host, so they do not need a buffer.
+            _docQueue = (_host == null) ? createDocQueue() : null;
+            _waiters = (_docQueue != null) ? new DocWaiters(this, _docQueue) : null;
+
+            try { _source.verifyCollection(_options);
+            } catch (final TailableCursorException tce) { throw tce;
+            } catch (final Throwable t) { throw new TailableCursorException(t); }
+
+            _cursorReader = new CursorReader();
+            created = true;
+        } finally { if (!created && pOwnsSource) pSource.close(); }
     }
 
-    private final Mongo _mongo;
+    private final TailSource _source;
     private final AtomicBoolean _running = new AtomicBoolean(false);
-    private final AtomicBoolean _locked = new AtomicBoolean(false);
     private final TailableCursorOptions _options;
-    private final Queue<Thread> _waiters = new ConcurrentLinkedQueue<Thread>();
 
     private final Logger _logger = Logger.getLogger("com.deftlabs.cursor.mongo.TailableCursor");
 
-    private final LinkedBlockingQueue<DBObject> _docQueue = new LinkedBlockingQueue<DBObject>(1);
+    private final DocRingBuffer<DBObject> _docQueue;
+    private final DocWaiters _waiters;
     private final CursorReader _cursorReader;
+    private final ReaderHost _host;
+    private final DocDispatcher _dispatcher;
+    private volatile Checkpointer _checkpointer;
+    private final PartitionCoordinator _partitions;
+    private final boolean _ownsSource;
+    private volatile boolean _delivering;
+
+    private final MetricsRecorder _metrics = new MetricsRecorder();
+    private final boolean _metricsEnabled;
+    private final boolean _trackPositions;
+    private MetricsMXBean _mxBean;
+
+    private static final long DRAIN_POLL_TIME = 1; // time in ms
 }
 
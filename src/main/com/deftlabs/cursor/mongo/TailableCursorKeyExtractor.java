@@ -0,0 +1,33 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+
+/**
+ * Returns the dispatch key of a doc. Docs with equal keys are handled by the
+ * same dispatch thread, in the order they were read.
+ */
+public interface TailableCursorKeyExtractor {
+
+    /**
+     * Returns the key (must implement hashCode) or null to use the first dispatch thread.
+     */
+    public Object key(final DBObject pDoc);
+}
+
@@ -0,0 +1,230 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import org.bson.types.ObjectId;
+import org.bson.types.BSONTimestamp;
+
+// Java
+import java.util.Date;
+
+/**
+ * A point in time snapshot of the cursor metrics. The counts are totals since the
+ * cursor was created. Rates over an interval are computed from two snapshots.
+ */
+public final class TailableCursorMetrics {
+
+    /**
+     * Returns the time the snapshot was taken (in ms).
+     */
+    public long getTimestamp() { return _timestamp; }
+
+    /**
+     * Returns the time the cursor was created (in ms).
+     */
+    public long getStartTime() { return _startTime; }
+
+    /**
+     * Returns the number of docs read from the server (including filtered docs).
+     */
+    public long getDocsRead() { return _docsRead; }
+
+    /**
+     * Returns the approximate number of bytes read from the server. This is only
+     * counted when metrics are enabled or a prefetch byte budget is set.
+     */
+    public long getBytesRead() { return _bytesRead; }
+
+    /**
+     * Returns the number of docs dropped by the doc filters.
+     */
+    public long getDocsFiltered() { return _docsFiltered; }
+
+    /**
+     * Returns the docs read per second since the cursor was created.
+     */
+    public double getDocsPerSecond() { return rate(_docsRead, _timestamp - _startTime); }
+
+    /**
+     * Returns the docs read per second since the previous snapshot.
+     */
+    public double getDocsPerSecond(final TailableCursorMetrics pPrevious)
+    { return rate(_docsRead - pPrevious._docsRead, _timestamp - pPrevious._timestamp); }
+
+    /**
+     * Returns the bytes read per second since the cursor was created.
+     */
+    public double getBytesPerSecond() { return rate(_bytesRead, _timestamp - _startTime); }
+
+    /**
+     * Returns the bytes read per second since the previous snapshot.
+     */
+    public double getBytesPerSecond(final TailableCursorMetrics pPrevious)
+    { return rate(_bytesRead - pPrevious._bytesRead, _timestamp - pPrevious._timestamp); }
+
+    /**
+     * Returns the number of docs in the prefetch buffer (zero if there is no buffer).
+     */
+    public int getBufferSize() { return _bufferSize; }
+
+    public int getBufferCapacity() { return _bufferCapacity; }
+
+    /**
+     * Returns the total time the reader was blocked on a full prefetch buffer (in ns).
+     */
+    public long getPutWaitNanos() { return _putWaitNanos; }
+
+    /**
+     * Returns the number of cursors created. Every cursor after the first is a
+     * re-creation (a dead cursor, an error or, in the dedicated mode, the end of a pass).
+     */
+    public long getCursorsCreated() { return _cursorsCreated; }
+
+    public long getCursorNotFoundCount() { return _cursorNotFound; }
+
+    /**
+     * Returns the number of errors reported (including cursor not found).
+     */
+    public long getErrorCount() { return _errors; }
+
+    /**
+     * Returns the number of times the capped collection lapped the reader.
+     */
+    public long getOverrunCount() { return _overruns; }
+
+    /**
+     * Returns the estimated number of docs lost to overruns (where it could be estimated).
+     */
+    public long getEstimatedLostDocs() { return _estimatedLostDocs; }
+
+    /**
+     * Returns the number of docs dropped by the dispatch backpressure policy.
+     */
+    public long getDispatchDroppedCount() { return _dispatchDropped; }
+
+    /**
+     * Returns the time docs waited in the prefetch buffer before nextDoc/nextDocs
+     * returned them. This is empty if metrics are disabled or a listener is used.
+     */
+    public TailableCursorHistogram getHandoffLatency() { return _handoffLatency; }
+
+    /**
+     * Returns the time spent in the doc or batch listener (per call). This is empty if
+     * metrics are disabled or no listener is used.
+     */
+    public TailableCursorHistogram getListenerLatency() { return _listenerLatency; }
+
+    /**
+     * Returns the resume field value of the newest doc read from the collection or null
+     * if it is not known.
+     */
+    public Object getNewestPosition() { return _newestPosition; }
+
+    /**
+     * Returns the resume field value of the last doc handed to the consumer or null
+     * if it is not known.
+     */
+    public Object getLastDeliveredPosition() { return _lastDeliveredPosition; }
+
+    /**
+     * Returns how far (in ms) the last delivered doc is behind the newest doc read or -1
+     * if it is not known. Docs the reader has not fetched yet (e.g., while the buffer is
+     * full) are not counted. The time comes from the resume field, so this is only known
+     * for ObjectId, BSONTimestamp and Date values.
+     */
+    public long getLagMillis() {
+        if (_newestPosition == null || _lastDeliveredPosition == null) return -1;
+        if (_newestPosition.equals(_lastDeliveredPosition)) return 0;
+
+        final long newest = positionTime(_newestPosition);
+        final long delivered = positionTime(_lastDeliveredPosition);
+
+        if (newest < 0 || delivered < 0) return -1;
+        return Math.max(0, newest - delivered);
+    }
+
+    /**
+     * Returns the time (in ms) of a position or -1 if the type has no time.
+     */
+    static long positionTime(final Object pPosition) {
+        if (pPosition instanceof ObjectId) return ((ObjectId)pPosition).getTime();
+        if (pPosition instanceof BSONTimestamp) return ((BSONTimestamp)pPosition).getTime() * 1000L;
+        if (pPosition instanceof Date) return ((Date)pPosition).getTime();
+        return -1;
+    }
+
+    /**
+     * Returns the lowest position of the same type as the sample at the time (in ms) or
+     * null if the type has no time.
+     */
+    static Object positionAt(final Object pSample, final long pTime) {
+        if (pSample instanceof ObjectId) return new ObjectId(new Date(pTime), 0, 0);
+        if (pSample instanceof BSONTimestamp) return new BSONTimestamp((int)(pTime / 1000), 0);
+        if (pSample instanceof Date) return new Date(pTime);
+        return null;
+    }
+
+    private static double rate(final long pCount, final long pMillis)
+    { return (pMillis <= 0) ? 0 : (pCount * 1000.0) / pMillis; }
+
+    TailableCursorMetrics(  final MetricsRecorder pRecorder,
+                            final int pBufferSize,
+                            final int pBufferCapacity,
+                            final long pPutWaitNanos,
+                            final long pDispatchDropped)
+    {
+        _timestamp = System.currentTimeMillis();
+        _startTime = pRecorder.getStartTime();
+        _docsRead = pRecorder.getDocsRead();
+        _bytesRead = pRecorder.getBytesRead();
+        _docsFiltered = pRecorder.getDocsFiltered();
+        _cursorsCreated = pRecorder.getCursorsCreated();
+        _cursorNotFound = pRecorder.getCursorNotFoundCount();
+        _errors = pRecorder.getErrorCount();
+        _overruns = pRecorder.getOverrunCount();
+        _estimatedLostDocs = pRecorder.getEstimatedLostDocs();
+        _handoffLatency = pRecorder.getHandoffLatency().snapshot();
+        _listenerLatency = pRecorder.getListenerLatency().snapshot();
+        _lastDeliveredPosition = pRecorder.getLastDelivered();
+        _bufferSize = pBufferSize;
+        _bufferCapacity = pBufferCapacity;
+        _putWaitNanos = pPutWaitNanos;
+        _dispatchDropped = pDispatchDropped;
+        _newestPosition = pRecorder.getLastRead();
+    }
+
+    private final long _timestamp;
+    private final long _startTime;
+    private final long _docsRead;
+    private final long _bytesRead;
+    private final long _docsFiltered;
+    private final long _cursorsCreated;
+    private final long _cursorNotFound;
+    private final long _errors;
+    private final long _overruns;
+    private final long _estimatedLostDocs;
+    private final TailableCursorHistogram _handoffLatency;
+    private final TailableCursorHistogram _listenerLatency;
+    private final Object _lastDeliveredPosition;
+    private final int _bufferSize;
+    private final int _bufferCapacity;
+    private final long _putWaitNanos;
+    private final long _dispatchDropped;
+    private final Object _newestPosition;
+}
+
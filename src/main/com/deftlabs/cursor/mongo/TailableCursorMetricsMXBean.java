@@ -0,0 +1,69 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+/**
+ * The JMX view of the cursor metrics. The cursor is registered as
+ * com.deftlabs.cursor.mongo:type=TailableCursor,name="[database].[collection]",id=[n]
+ * when JMX is enabled in the options (the id tells cursors on the same collection apart). The rates are over the last sample interval
+ * (at least a second) and the latencies are in microseconds.
+ */
+public interface TailableCursorMetricsMXBean {
+
+    public long getDocsRead();
+
+    public long getBytesRead();
+
+    public long getDocsFiltered();
+
+    public double getDocsPerSecond();
+
+    public double getBytesPerSecond();
+
+    public int getBufferSize();
+
+    public int getBufferCapacity();
+
+    public long getPutWaitMillis();
+
+    public long getCursorsCreated();
+
+    public long getCursorNotFoundCount();
+
+    public long getErrorCount();
+
+    public long getDispatchDroppedCount();
+
+    public long getOverrunCount();
+
+    public long getEstimatedLostDocs();
+
+    public double getHandoffLatencyMeanMicros();
+
+    public long getHandoffLatency99thPercentileMicros();
+
+    public double getListenerLatencyMeanMicros();
+
+    public long getListenerLatency99thPercentileMicros();
+
+    /**
+     * Returns the lag (in ms) of the last delivered doc behind the newest doc read or
+     * -1 if it is not known.
+     */
+    public long getLagMillis();
+}
+
@@ -17,9 +17,19 @@
 package com.deftlabs.cursor.mongo;
 
 // Mongo
+import com.mongodb.Mongo;
 import com.mongodb.DBObject;
 import com.mongodb.BasicDBObject;
 
+// Java
+import java.io.File;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.Date;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
 /**
  * The tailable cursor options object.
  */
@@ -33,12 +43,23 @@ public class TailableCursorOptions {
     public DBObject getInitialQuery() { return _initialQuery; }
 
     /**
-     * Set the no doc sleep time. This is called when there are no more docs in the oplog.
-     * The default is one second. Decreasing places extra queries on your collection.
+     * Set the no doc sleep time. This is the longest time the reader sleeps before it
+     * queries again when there are no more docs. The sleep starts at the min no doc sleep
+     * time and doubles (with jitter) while the collection stays idle. After a pass that
+     * read docs there is no sleep. The default is one second. Decreasing places extra
+     * queries on your collection.
      */
     public void setNoDocSleepTime(final long pV) { _noDocSleepTime = pV; }
     public long getNoDocSleepTime() { return _noDocSleepTime; }
 
+    /**
+     * Set the min no doc sleep time (the first sleep once the collection is idle). If
+     * this is not below the no doc sleep time, the reader always sleeps the no doc sleep
+     * time. The default is ten ms.
+     */
+    public void setMinNoDocSleepTime(final long pV) { _minNoDocSleepTime = pV; }
+    public long getMinNoDocSleepTime() { return _minNoDocSleepTime; }
+
     public void setErrorSleepTime(final long pV) { _errorSleepTime = pV; }
     public long getErrorSleepTime() { return _errorSleepTime; }
 
@@ -65,22 +86,446 @@ public class TailableCursorOptions {
     public TailableCursorDocListener getDocListener() { return _docListener; }
     public boolean hasDocListener() { return _docListener != null; }
 
+    /**
+     * Set a doc listener that is called with typed oplog entries. This replaces the
+     * doc listener.
+     */
+    public void setOplogListener(final TailableCursorOplogListener pV) {
+        if (pV == null) { _docListener = null; return; }
+        _docListener = new TailableCursorDocListener() {
+            @Override
+            public void nextDoc(final DBObject pDoc) { pV.nextEntry(new OplogEntry(pDoc)); }
+        };
+    }
+
+    /**
+     * Set the batch listener. The listener is called with the docs pulled from each
+     * server batch (at most the prefetch count at a time). This can not be used
+     * with the doc listener.
+     */
+    public void setBatchListener(final TailableCursorBatchListener pV) { _batchListener = pV; }
+    public TailableCursorBatchListener getBatchListener() { return _batchListener; }
+    public boolean hasBatchListener() { return _batchListener != null; }
+
     public String getDatabaseName() { return _databaseName; }
     public String getCollectionName() { return _collectionName; }
 
+    /**
+     * Set the maximum number of docs the reader buffers ahead of the consumers. The
+     * buffer is allocated when the cursor is created. The reader only blocks when
+     * the buffer is full. A count of 1 is rounded up to 2. The default is 1000.
+     */
+    public void setPrefetchCount(final int pV) { _prefetchCount = pV; }
+    public int getPrefetchCount() { return _prefetchCount; }
+
+    /**
+     * Set the approximate maximum number of bytes the reader buffers ahead of the
+     * consumers. This is checked in addition to the prefetch count. The default is
+     * zero (no byte limit).
+     */
+    public void setPrefetchBytes(final long pV) { _prefetchBytes = pV; }
+    public long getPrefetchBytes() { return _prefetchBytes; }
+
+    /**
+     * Set the directory docs spill to when the prefetch buffer is full. Instead of
+     * blocking the reader, docs are appended as BSON to memory mapped segment files and
+     * read back in order by the nextDoc callers. A segment file is deleted once its docs
+     * have been read. The spilled docs are not durable: they are dropped when the cursor
+     * stops. The default is null (the reader blocks when the buffer is full).
+     */
+    public void setSpillDirectory(final File pV) { _spillDirectory = pV; }
+    public File getSpillDirectory() { return _spillDirectory; }
+    public boolean hasSpillDirectory() { return _spillDirectory != null; }
+
+    /**
+     * Set the size of each spill segment file. A doc larger than this gets a segment
+     * of its own. The default is 64 MB.
+     */
+    public void setSpillSegmentSize(final int pV) { _spillSegmentSize = pV; }
+    public int getSpillSegmentSize() { return _spillSegmentSize; }
+
+    /**
+     * Set the maximum number of bytes of spilled docs. The reader blocks when this is
+     * reached. Zero means no limit. The default is 1 GB.
+     */
+    public void setSpillMaxBytes(final long pV) { _spillMaxBytes = pV; }
+    public long getSpillMaxBytes() { return _spillMaxBytes; }
+
+    /**
+     * Set the field used to track the position of the last doc read. When the cursor
+     * is lost or ends, the new cursor only returns docs where this field is greater
+     * than the last value seen, so the collection is not replayed. The field must
+     * increase in insertion order (e.g., an oplog ts, or _id when every ObjectId comes
+     * from a single client): a doc inserted with a lower value than one already read
+     * is skipped. The checkpoint store, the start positions, overrun detection, the lag
+     * and consumer groups all need a resume field. The default is null: a new cursor
+     * re-runs the initial query, so docs may be delivered again but are never skipped.
+     */
+    public void setResumeField(final String pV) { _resumeField = pV; }
+    public String getResumeField() { return _resumeField; }
+    public boolean hasResumeField() { return _resumeField != null; }
+
+    /**
+     * Set the oplog replay flag. This adds the oplogReplay query option, which lets the
+     * server find the starting point of a ts query without scanning. Only use this with
+     * the oplog (or a collection with a ts field) and a resume field of ts. The default
+     * is false.
+     */
+    public void setOplogReplay(final boolean pV) { _oplogReplay = pV; }
+    public boolean getOplogReplay() { return _oplogReplay; }
+
+    /**
+     * Set where the cursor starts when there is no checkpoint to resume from. FROM_NOW
+     * skips the docs already in the collection, so the first live doc arrives without
+     * reading the whole collection. The default is FROM_OLDEST.
+     */
+    public void setStartPosition(final TailableCursorStartPosition pV) { _startPosition = pV; }
+    public TailableCursorStartPosition getStartPosition() { return _startPosition; }
+
+    /**
+     * Start with the first doc at or after the time (FROM_TIMESTAMP).
+     */
+    public void setStartTime(final Date pV) { _startPosition = TailableCursorStartPosition.FROM_TIMESTAMP; _startTime = pV; }
+    public Date getStartTime() { return _startTime; }
+
+    /**
+     * Start with the first doc whose resume field is at or after the value (FROM_ID).
+     */
+    public void setStartId(final Object pV) { _startPosition = TailableCursorStartPosition.FROM_ID; _startId = pV; }
+    public Object getStartId() { return _startId; }
+
+    /**
+     * Set the checkpoint store. If set, the cursor resumes from the saved position on
+     * start and saves the position of acknowledged docs in the background. A doc is
+     * acknowledged when it is returned by nextDoc/nextDocs or when the listener call
+     * returns. This requires a resume field. The default is null (no checkpoints).
+     */
+    public void setCheckpointStore(final CheckpointStore pV) { _checkpointStore = pV; }
+    public CheckpointStore getCheckpointStore() { return _checkpointStore; }
+    public boolean hasCheckpointStore() { return _checkpointStore != null; }
+
+    /**
+     * Set the checkpoint key. The default is the database and collection name.
+     */
+    public void setCheckpointKey(final String pV) { _checkpointKey = pV; }
+    public String getCheckpointKey()
+    { return (_checkpointKey != null) ? _checkpointKey : _databaseName + "." + _collectionName; }
+
+    /**
+     * Set the maximum time between checkpoint saves. The default is one second.
+     */
+    public void setCheckpointInterval(final long pV) { _checkpointInterval = pV; }
+    public long getCheckpointInterval() { return _checkpointInterval; }
+
+    /**
+     * Set the number of acknowledged docs that triggers a checkpoint save before
+     * the interval passes. The default is 1000.
+     */
+    public void setCheckpointDocCount(final int pV) { _checkpointDocCount = pV; }
+    public int getCheckpointDocCount() { return _checkpointDocCount; }
+
+    /**
+     * Set the lease store. With a lease store the cursor is a member of a consumer group:
+     * the docs are split into partitions by key, the partitions are spread over the live
+     * members and each member only delivers the docs of the partitions it holds a lease on.
+     * The members (usually on different hosts) must have the same collection, query,
+     * partition count and key extractor. This needs a resume field.
+     */
+    public void setLeaseStore(final LeaseStore pV) { _leaseStore = pV; }
+    public LeaseStore getLeaseStore() { return _leaseStore; }
+    public boolean hasLeaseStore() { return _leaseStore != null; }
+
+    /**
+     * Set the consumer group name. The default is the database and collection name.
+     */
+    public void setConsumerGroup(final String pV) { _consumerGroup = pV; }
+    public String getConsumerGroup()
+    { return (_consumerGroup != null) ? _consumerGroup : _databaseName + "." + _collectionName; }
+
+    /**
+     * Set the member id in the consumer group. The default is a random id.
+     */
+    public void setMemberId(final String pV) { _memberId = pV; }
+    public String getMemberId() { return _memberId; }
+
+    /**
+     * Set the number of partitions in the consumer group. This caps the number of members
+     * that get docs. The default is 16.
+     */
+    public void setPartitionCount(final int pV) { _partitionCount = pV; }
+    public int getPartitionCount() { return _partitionCount; }
+
+    /**
+     * Set the partition key extractor. If this is not set, the _id is the key. The
+     * partition is computed from the key's contents, so the key types are the ones the
+     * dedup key extractor supports. Other key types are reported as errors.
+     */
+    public void setPartitionKeyExtractor(final TailableCursorKeyExtractor pV) { _partitionKeyExtractor = pV; }
+    public TailableCursorKeyExtractor getPartitionKeyExtractor() { return _partitionKeyExtractor; }
+
+    /**
+     * Set the lease time (in ms). A member that has not renewed its leases for this long is
+     * considered dead and its partitions move to the other members. The leases are renewed
+     * every third of the lease time. The default is 10000.
+     */
+    public void setLeaseTime(final long pV) { _leaseTime = pV; }
+    public long getLeaseTime() { return _leaseTime; }
+
+    /**
+     * Set the number of threads that call the doc listener. When zero (the default),
+     * the listener is called on the reader thread. Otherwise the reader hands the docs
+     * to the dispatch threads, so a slow listener does not hold up the reader.
+     */
+    public void setDispatchThreads(final int pV) { _dispatchThreads = pV; }
+    public int getDispatchThreads() { return _dispatchThreads; }
+
+    /**
+     * Set the dispatch key extractor. Docs with the same key are handled by the same
+     * dispatch thread, in order. If this is not set, docs are handed to the dispatch
+     * threads round robin and may be handled in any order.
+     */
+    public void setDispatchKeyExtractor(final TailableCursorKeyExtractor pV) { _dispatchKeyExtractor = pV; }
+    public TailableCursorKeyExtractor getDispatchKeyExtractor() { return _dispatchKeyExtractor; }
+
+    /**
+     * Set the queue size of each dispatch thread. The default is 1000.
+     */
+    public void setDispatchQueueSize(final int pV) { _dispatchQueueSize = pV; }
+    public int getDispatchQueueSize() { return _dispatchQueueSize; }
+
+    /**
+     * Set what the reader does when a dispatch queue is full. The default is BLOCK.
+     */
+    public void setDispatchBackpressure(final TailableCursorBackpressure pV) { _dispatchBackpressure = pV; }
+    public TailableCursorBackpressure getDispatchBackpressure() { return _dispatchBackpressure; }
+
+    /**
+     * Set how nextDoc callers wait for docs and the reader waits for room in the
+     * prefetch buffer. The default is BLOCKING.
+     */
+    public void setWaitStrategy(final TailableCursorWaitStrategy pV) { _waitStrategy = pV; }
+    public TailableCursorWaitStrategy getWaitStrategy() { return _waitStrategy; }
+
+    /**
+     * Set the raw docs flag. If true, docs are delivered as RawDBObject instances that
+     * hold the BSON bytes from the server and only decode fields when they are accessed.
+     * Raw docs are read only and DBRefs are not resolved. The default is false.
+     */
+    public void setRawDocs(final boolean pV) { _rawDocs = pV; }
+    public boolean getRawDocs() { return _rawDocs; }
+
+    /**
+     * Set the fields to return (the find projection). This cuts the bytes sent by the
+     * server and the decode time. If the resume field is not in an inclusive projection,
+     * it is added. The default is null (all fields).
+     */
+    public void setFields(final DBObject pV) { _fields = pV; }
+    public DBObject getFields() { return _fields; }
+    public boolean hasFields() { return _fields != null && !_fields.keySet().isEmpty(); }
+
+    /**
+     * Add a client side filter/transform stage. The stages run in the order added.
+     */
+    public void addDocFilter(final TailableCursorDocFilter pV) { _docFilters.add(pV); }
+    public List<TailableCursorDocFilter> getDocFilters() { return _docFilters; }
+
+    /**
+     * Only read oplog entries for the namespace (database.collection). A namespace of
+     * database.* matches every collection in the database (and its commands). The
+     * namespaces are added to the query, so the server skips the other entries.
+     */
+    public void addOplogNamespace(final String pV) { _oplogNamespaces.add(pV); }
+    public List<String> getOplogNamespaces() { return _oplogNamespaces; }
+
+    /**
+     * Only read oplog entries of the type. The types are added to the query, so the
+     * server skips the other entries.
+     */
+    public void addOplogOperation(final OplogOperation pV) { _oplogOperations.add(pV); }
+    public List<OplogOperation> getOplogOperations() { return _oplogOperations; }
+
+    public boolean hasOplogFilters() { return !_oplogNamespaces.isEmpty() || !_oplogOperations.isEmpty(); }
+
+    /**
+     * Set the number of recent doc keys remembered to drop docs that are delivered
+     * again (e.g., after a rewind or a resume from an older checkpoint). Dropped docs
+     * are counted as filtered. The window is allocated when the cursor is created.
+     * The default is zero (no dedup).
+     */
+    public void setDedupWindow(final int pV) { _dedupWindow = pV; }
+    public int getDedupWindow() { return _dedupWindow; }
+
+    /**
+     * Set the maximum time a key stays in the dedup window. The default is zero (keys
+     * are only evicted by count).
+     */
+    public void setDedupWindowTime(final long pV) { _dedupWindowTime = pV; }
+    public long getDedupWindowTime() { return _dedupWindowTime; }
+
+    /**
+     * Set the dedup key extractor. If this is not set, the _id is the key. Keys can be
+     * numbers, strings, ObjectIds, timestamps, dates, booleans, UUIDs, binary data,
+     * symbols and embedded docs or arrays of these. Other key types are reported as
+     * errors (their hash codes are too weak to dedup on).
+     */
+    public void setDedupKeyExtractor(final TailableCursorKeyExtractor pV) { _dedupKeyExtractor = pV; }
+    public TailableCursorKeyExtractor getDedupKeyExtractor() { return _dedupKeyExtractor; }
+
+    /**
+     * Set the metrics flag. If true, the handoff and listener latencies, the bytes read
+     * and the last read and delivered positions are recorded. The counters are always kept. The
+     * default is true.
+     */
+    public void setMetricsEnabled(final boolean pV) { _metricsEnabled = pV; }
+    public boolean getMetricsEnabled() { return _metricsEnabled; }
+
+    /**
+     * Set the jmx flag. If true, the metrics are registered with the platform MBean
+     * server while the cursor is running (see TailableCursorMetricsMXBean). The default
+     * is false.
+     */
+    public void setJmxEnabled(final boolean pV) { _jmxEnabled = pV; }
+    public boolean getJmxEnabled() { return _jmxEnabled; }
+
+    /**
+     * Set what the reader does when the capped collection has lapped it. This needs a
+     * resume field: without one overruns are not detected, and a policy other than the
+     * default is rejected. The default is RESUME_FROM_OLDEST. Overruns are also not
+     * detected when the initial query or an oplog filter selects docs, because the docs
+     * that did not match can be overwritten without any matching doc being lost.
+     */
+    public void setOverrunPolicy(final TailableCursorOverrunPolicy pV) { _overrunPolicy = pV; }
+    public TailableCursorOverrunPolicy getOverrunPolicy() { return _overrunPolicy; }
+
+    /**
+     * Set the overrun listener. This is called when the capped collection has lapped
+     * the reader. This needs a resume field.
+     */
+    public void setOverrunListener(final TailableCursorOverrunListener pV) { _overrunListener = pV; }
+    public TailableCursorOverrunListener getOverrunListener() { return _overrunListener; }
+    public boolean hasOverrunListener() { return _overrunListener != null; }
+
+    /**
+     * Set a shared Mongo instance for the cursor. The cursor does not close it and the
+     * mongo uri is not used. If this is not set, the cursor uses the Mongo instance for the
+     * uri, which is shared by the cursors on the same uri and closed when the last one stops.
+     */
+    public void setMongo(final Mongo pV) { _mongo = pV; }
+    public Mongo getMongo() { return _mongo; }
+    public boolean hasMongo() { return _mongo != null; }
+
+    /**
+     * Set the factory for the cursor's threads (the reader, the dispatch threads and the
+     * checkpointer). On a JVM with virtual threads, Thread.ofVirtual().factory() runs them
+     * as virtual threads. If this is not set, the cursor creates platform threads.
+     */
+    public void setThreadFactory(final ThreadFactory pV) { _threadFactory = pV; }
+    public ThreadFactory getThreadFactory() { return _threadFactory; }
+
+    /**
+     * Set the executor the reader loop runs on. The loop holds its executor thread until
+     * the cursor stops, so the executor needs a thread for each cursor it runs (e.g. a
+     * thread per task executor). If this is not set, the reader gets its own thread from
+     * the thread factory.
+     */
+    public void setReaderExecutor(final Executor pV) { _readerExecutor = pV; }
+    public Executor getReaderExecutor() { return _readerExecutor; }
+    public boolean hasReaderExecutor() { return _readerExecutor != null; }
+
+    /**
+     * Returns a new (unstarted) thread from the thread factory or, without a factory, a
+     * platform thread with the name.
+     */
+    Thread newThread(final Runnable pRunnable, final String pName, final boolean pDaemon) {
+        if (_threadFactory != null) return _threadFactory.newThread(pRunnable);
+        final Thread thread = new Thread(pRunnable, pName);
+        thread.setDaemon(pDaemon);
+        return thread;
+    }
+
     private TailableCursorErrorListener _errorListener;
     private DBObject _initialQuery = new BasicDBObject();
+    private DBObject _fields;
+    private final List<TailableCursorDocFilter> _docFilters = new ArrayList<TailableCursorDocFilter>();
+    private final List<String> _oplogNamespaces = new ArrayList<String>();
+    private final List<OplogOperation> _oplogOperations = new ArrayList<OplogOperation>();
+
+    private int _dedupWindow = 0;
+    private long _dedupWindowTime = 0; // time in ms
+    private TailableCursorKeyExtractor _dedupKeyExtractor;
     private long _noDocSleepTime = 1000; // time in ms
+    private long _minNoDocSleepTime = 10; // time in ms
     private long _errorSleepTime = 1000; // time in ms
 
     private long _defaultCappedCollectionSize = 209715200l; // size in bytes
 
     private boolean _assertIfNoCappedCollection = false;
 
+    private int _prefetchCount = 1000;
+    private long _prefetchBytes = 0; // size in bytes
+    private TailableCursorWaitStrategy _waitStrategy = TailableCursorWaitStrategy.BLOCKING;
+
+    private File _spillDirectory;
+    private int _spillSegmentSize = 67108864; // size in bytes
+    private long _spillMaxBytes = 1073741824l; // size in bytes
+
+    private String _resumeField;
+    private boolean _oplogReplay = false;
+    private TailableCursorStartPosition _startPosition = TailableCursorStartPosition.FROM_OLDEST;
+    private Date _startTime;
+    private Object _startId;
+    private boolean _rawDocs = false;
+
+    private CheckpointStore _checkpointStore;
+    private String _checkpointKey;
+    private long _checkpointInterval = 1000; // time in ms
+    private int _checkpointDocCount = 1000;
+
+    private LeaseStore _leaseStore;
+    private String _consumerGroup;
+    private String _memberId = UUID.randomUUID().toString();
+    private int _partitionCount = 16;
+    private TailableCursorKeyExtractor _partitionKeyExtractor;
+    private long _leaseTime = 10000; // time in ms
+
+    private int _dispatchThreads = 0;
+    private int _dispatchQueueSize = 1000;
+    private TailableCursorKeyExtractor _dispatchKeyExtractor;
+    private TailableCursorBackpressure _dispatchBackpressure = TailableCursorBackpressure.BLOCK;
+
+    private TailableCursorOverrunPolicy _overrunPolicy = TailableCursorOverrunPolicy.RESUME_FROM_OLDEST;
+    private TailableCursorOverrunListener _overrunListener;
+
+    private Mongo _mongo;
+    private ThreadFactory _threadFactory;
+    private Executor _readerExecutor;
+
+    private boolean _metricsEnabled = true;
+    private boolean _jmxEnabled = false;
+
     private final String _mongoUri;
     private final String _databaseName;
     private final String _collectionName;
     private TailableCursorDocListener _docListener;
+    private TailableCursorBatchListener _batchListener;
+
+    /**
+     * Returns options to tail the replica set oplog (local.oplog.rs). Entries resume
+     * by ts with the oplog replay query option and the oplog is never created. Use
+     * the oplog namespace and operation filters to have the server skip entries and
+     * the oplog listener (or OplogEntry) for typed entries.
+     * @param pMongoUri The uri to connect to the server.
+     */
+    public static TailableCursorOptions oplog(final String pMongoUri) {
+        final TailableCursorOptions options = new TailableCursorOptions(pMongoUri, OPLOG_DATABASE, OPLOG_COLLECTION);
+        options.setResumeField("ts");
+        options.setOplogReplay(true);
+        options.setAssertIfNoCappedCollection(true);
+        return options;
+    }
+
+    public static final String OPLOG_DATABASE = "local";
+    public static final String OPLOG_COLLECTION = "oplog.rs";
 
     /**
      * The only required params are the uri, database and collection names.
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Java
+import java.util.EventListener;
+
+/**
+ * Called when the capped collection has lapped the reader. This is called on the
+ * reader thread before the overrun policy is applied.
+ */
+public interface TailableCursorOverrunListener extends EventListener {
+
+    /**
+     * @param pLastPosition The resume field value of the last doc read.
+     * @param pOldestPosition The resume field value of the oldest doc in the collection.
+     * @param pEstimatedLostDocs The estimated number of docs lost or -1 if it can't be
+     * estimated (the estimate needs numeric or time based resume field values).
+     */
+    public void onOverrun(final Object pLastPosition, final Object pOldestPosition, final long pEstimatedLostDocs);
+}
+
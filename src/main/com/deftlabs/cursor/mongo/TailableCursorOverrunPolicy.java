@@ -0,0 +1,41 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+/**
+ * What the reader does when the capped collection has lapped it (the last doc it read
+ * has been overwritten, so docs may have been lost).
+ */
+public enum TailableCursorOverrunPolicy {
+
+    /**
+     * Continue with the oldest doc still in the collection. This is the default.
+     */
+    RESUME_FROM_OLDEST,
+
+    /**
+     * Skip the docs still in the collection and continue with docs inserted after the
+     * newest one.
+     */
+    SKIP_TO_HEAD,
+
+    /**
+     * Report a TailableCursorException (with the OVERRUN error code) and stop the cursor.
+     */
+    FAIL
+}
+
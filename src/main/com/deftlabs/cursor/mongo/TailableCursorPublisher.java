@@ -0,0 +1,287 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+
+// Java
+import java.util.List;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes a capped collection to subscribers with demand (Reactive Streams style).
+ * Each subscription reads with its own cursor, a pass at a time, on a small pool of
+ * reader threads shared by the subscriptions. A pass reads no more docs than the
+ * subscriber has requested and a subscription without demand is parked: it holds no
+ * thread, runs no pass and buffers nothing. Subscribers have independent demand and
+ * position, so a slow subscriber does not hold back the others.
+ *
+ * A subscription reads from the start of the collection (the initial query). The options
+ * can't have a doc or batch listener, dispatch threads, a checkpoint or lease store or jmx.
+ */
+public class TailableCursorPublisher {
+
+    /**
+     * Subscribe to the collection. The subscriber's onSubscribe method is called before
+     * this returns. If the collection can't be verified, onError is called after it.
+     */
+    public void subscribe(final TailableCursorSubscriber pSubscriber) {
+        if (pSubscriber == null) throw new NullPointerException("Subscriber is null");
+
+        final Subscription subscription;
+
+        try {
+            synchronized (this) {
+                if (!_running.get()) throw new TailableCursorException("Not running");
+                subscription = new Subscription(pSubscriber);
+                _subscriptions.add(subscription);
+            }
+        } catch (final TailableCursorException tce) {
+            pSubscriber.onSubscribe(new TailableCursorSubscription() {
+                @Override
+                public void request(final long pCount) { }
+                @Override
+                public void cancel() { }
+            });
+            pSubscriber.onError(tce);
+            return;
+        }
+
+        pSubscriber.onSubscribe(subscription);
+        subscription.start();
+    }
+
+    /**
+     * Called to close the publisher. The subscriptions are completed (onComplete) once the
+     * reader threads have exited and then the source is closed.
+     */
+    public void close() {
+        final List<Subscription> subscriptions;
+
+        synchronized (this) {
+            if (!_running.compareAndSet(true, false)) throw new TailableCursorException("Not running");
+            subscriptions = new ArrayList<Subscription>(_subscriptions);
+        }
+
+        final List<Subscription> ended = new ArrayList<Subscription>();
+        for (final Subscription subscription : subscriptions) if (subscription.end()) ended.add(subscription);
+
+        _executor.shutdownNow();
+
+        try { _executor.awaitTermination(STOP_WAIT_TIME, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException ie) { Thread.currentThread().interrupt(); }
+
+        for (final Subscription subscription : subscriptions) subscription._member.closeGroupCursor();
+
+        for (final Subscription subscription : ended) {
+            try { subscription._subscriber.onComplete();
+            } catch (final Throwable t) { _logger.log(Level.SEVERE, t.getMessage(), t); }
+        }
+
+        _source.close();
+    }
+
+    /**
+     * Returns true until the publisher is closed.
+     */
+    public boolean isRunning() { return _running.get(); }
+
+    /**
+     * Returns the number of active subscriptions.
+     */
+    public synchronized int getSubscriptionCount() { return _subscriptions.size(); }
+
+    /**
+     * Set the maximum number of docs read for one subscription before the reader thread
+     * moves on to another subscription. The default is 1000.
+     */
+    public void setMaxDocsPerPass(final int pV) { _maxDocsPerPass = pV; }
+    public int getMaxDocsPerPass() { return _maxDocsPerPass; }
+
+    private void schedule(final Runnable pReader, final long pDelay) {
+        if (!_running.get()) return;
+        try { _executor.schedule(pReader, pDelay, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException ree) { /* closing */ }
+    }
+
+    private synchronized void remove(final Subscription pSubscription) { _subscriptions.remove(pSubscription); }
+
+    /**
+     * A subscriber's demand and the cursor that serves it. The pass that finds no demand
+     * parks itself and the next request runs it again.
+     */
+    private class Subscription implements TailableCursorSubscription, ReaderHost {
+
+        @Override
+        public void request(final long pCount) {
+            if (pCount <= 0) {
+                if (end()) { unpark(); _subscriber.onError(new IllegalArgumentException("Invalid request: " + pCount)); }
+                return;
+            }
+
+            long current, next;
+            do {
+                current = _demand.get();
+                next = current + pCount;
+                if (next < 0) next = Long.MAX_VALUE;
+            } while (!_demand.compareAndSet(current, next));
+
+            unpark();
+        }
+
+        @Override
+        public void cancel() { if (end()) unpark(); }
+
+        @Override
+        public void schedule(final Runnable pReader, final long pDelay) {
+            if (_demand.get() > 0) { TailableCursorPublisher.this.schedule(pReader, pDelay); return; }
+
+            _parked.set(pReader);
+
+            // A request made before the pass was parked did not see it.
+            if (_demand.get() > 0) unpark();
+        }
+
+        @Override
+        public int getMaxDocsPerPass() { return (int)Math.min(_demand.get(), _maxDocsPerPass); }
+
+        @Override
+        public void deliver(final TailableCursorImpl pCursor, final DBObject pDoc) {
+            _demand.decrementAndGet();
+            try { _subscriber.onNext(pDoc);
+            } catch (final RuntimeException re) { cancel(); throw re; }
+            pCursor.acknowledge(pDoc);
+        }
+
+        @Override
+        public void failed(final Throwable pT) { if (end()) _subscriber.onError(pT); }
+
+        /**
+         * Run the parked pass. A pass run after the subscription ends closes its cursor.
+         */
+        private void unpark() {
+            final Runnable reader = _parked.getAndSet(null);
+            if (reader != null) TailableCursorPublisher.this.schedule(reader, 0);
+        }
+
+        private synchronized void start() { if (!_done) _member.start(); }
+
+        /**
+         * Stop the cursor.
+         * @return True if this call ended the subscription.
+         */
+        private synchronized boolean end() {
+            if (_done) return false;
+            _done = true;
+            if (_member.isRunning()) _member.stop();
+            remove(this);
+            return true;
+        }
+
+        private Subscription(final TailableCursorSubscriber pSubscriber) {
+            _subscriber = pSubscriber;
+            _member = new TailableCursorImpl(_options, _source, this);
+        }
+
+        private final TailableCursorSubscriber _subscriber;
+        private final TailableCursorImpl _member;
+        private final AtomicLong _demand = new AtomicLong(0);
+        private final AtomicReference<Runnable> _parked = new AtomicReference<Runnable>();
+        private boolean _done;
+    }
+
+    /**
+     * Construct a new object.
+     * @param pOptions The collection options (the shared Mongo instance or the mongo uri is used).
+     * @param pReaderThreads The number of reader threads shared by the subscriptions.
+     */
+    public TailableCursorPublisher(final TailableCursorOptions pOptions, final int pReaderThreads)
+    { this(pOptions, MongoTailSource.create(pOptions), pReaderThreads); }
+
+    /**
+     * Construct a new object on a source. The source is closed when the publisher is closed.
+     * @param pOptions The collection options (the mongo uri is ignored).
+     * @param pSource The source the collection is read from.
+     * @param pReaderThreads The number of reader threads shared by the subscriptions.
+     */
+    public TailableCursorPublisher(final TailableCursorOptions pOptions, final TailSource pSource, final int pReaderThreads)
+    { this(pOptions, pSource, pReaderThreads, null); }
+
+    /**
+     * Construct a new object on a source with reader threads from the factory.
+     * @param pOptions The collection options (the mongo uri is ignored).
+     * @param pSource The source the collection is read from.
+     * @param pReaderThreads The number of reader threads shared by the subscriptions.
+     * @param pThreadFactory The factory for the reader threads (null for daemon platform threads).
+     */
+    public TailableCursorPublisher( final TailableCursorOptions pOptions,
+                                    final TailSource pSource,
+                                    final int pReaderThreads,
+                                    final ThreadFactory pThreadFactory)
+    {
+        if (pReaderThreads < 1) throw new TailableCursorException("Invalid reader thread count: " + pReaderThreads);
+
+        if (pOptions.hasDocListener() || pOptions.hasBatchListener())
+        { throw new TailableCursorException("Can't use a doc or batch listener with a publisher"); }
+
+        if (pOptions.getDispatchThreads() > 0) throw new TailableCursorException("Can't use dispatch threads with a publisher");
+
+        // The subscriptions would share the checkpoint key, the group member id and the MXBean name.
+        if (pOptions.hasCheckpointStore()) throw new TailableCursorException("Can't use a checkpoint store with a publisher");
+        if (pOptions.hasLeaseStore()) throw new TailableCursorException("Can't use a lease store with a publisher");
+        if (pOptions.getJmxEnabled()) throw new TailableCursorException("Can't use jmx with a publisher");
+
+        _options = pOptions;
+        _source = pSource;
+
+        _executor = new ScheduledThreadPoolExecutor(pReaderThreads, (pThreadFactory != null) ? pThreadFactory : new ThreadFactory() {
+            private final AtomicInteger _count = new AtomicInteger(0);
+            @Override
+            public Thread newThread(final Runnable pRunnable) {
+                final Thread thread = new Thread(pRunnable, "TailableCursorPublisherReader-" + _count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private final TailableCursorOptions _options;
+    private final TailSource _source;
+    private final ScheduledExecutorService _executor;
+    private final AtomicBoolean _running = new AtomicBoolean(true);
+    private final List<Subscription> _subscriptions = new ArrayList<Subscription>();
+
+    private volatile int _maxDocsPerPass = 1000;
+
+    private final Logger _logger = Logger.getLogger("com.deftlabs.cursor.mongo.TailableCursor");
+
+    private static final long STOP_WAIT_TIME = 5000; // time in ms
+}
+
@@ -0,0 +1,48 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deftlabs.cursor.mongo;
+
+/**
+ * Where a new cursor starts reading (when there is no checkpoint to resume from).
+ * Every position other than FROM_OLDEST needs a resume field.
+ */
+public enum TailableCursorStartPosition {
+
+    /**
+     * Read every doc in the collection, oldest first. This is the default.
+     */
+    FROM_OLDEST,
+
+    /**
+     * Skip the docs already in the collection and start with docs inserted after the
+     * newest one (found with a reverse natural order query).
+     */
+    FROM_NOW,
+
+    /**
+     * Start with the first doc at or after the start time. The resume field must hold
+     * a time (an ObjectId, a BSONTimestamp or a date).
+     */
+    FROM_TIMESTAMP,
+
+    /**
+     * Start with the first doc whose resume field is at or after the start id.
+     */
+    FROM_ID
+}
+
@@ -0,0 +1,53 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+
+/**
+ * Receives the docs of a publisher subscription. This follows the Reactive Streams
+ * Subscriber contract: onSubscribe is called first, then onNext at most as many times
+ * as requested, then (unless cancelled) onComplete or onError. The calls are never
+ * concurrent.
+ */
+public interface TailableCursorSubscriber {
+
+    /**
+     * Called once, before any other method. No docs are read until demand is
+     * signaled with the subscription.
+     */
+    public void onSubscribe(final TailableCursorSubscription pSubscription);
+
+    /**
+     * Called with each doc (on a publisher reader thread).
+     */
+    public void onNext(final DBObject pDoc);
+
+    /**
+     * Called if the subscription fails. No other method is called afterwards.
+     */
+    public void onError(final Throwable pT);
+
+    /**
+     * Called when the publisher is closed. No other method is called afterwards.
+     */
+    public void onComplete();
+
+}
+
@@ -0,0 +1,39 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deftlabs.cursor.mongo;
+
+/**
+ * The demand of one publisher subscriber. This follows the Reactive Streams
+ * Subscription contract.
+ */
+public interface TailableCursorSubscription {
+
+    /**
+     * Add to the number of docs the subscriber is ready to take. The demand is capped at
+     * Long.MAX_VALUE (unbounded). A request of zero or less fails the subscription with an
+     * IllegalArgumentException.
+     */
+    public void request(final long pCount);
+
+    /**
+     * Stop the subscription. Docs already being delivered may still arrive.
+     */
+    public void cancel();
+
+}
+
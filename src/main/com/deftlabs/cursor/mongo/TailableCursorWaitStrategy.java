@@ -0,0 +1,41 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+/**
+ * How consumers wait for docs (and the reader waits for room) in the prefetch buffer.
+ */
+public enum TailableCursorWaitStrategy {
+
+    /**
+     * Park the thread until it is signaled. This uses the least CPU and is the default.
+     */
+    BLOCKING,
+
+    /**
+     * Spin for a short time and then yield the thread between checks. This trades CPU
+     * for lower wake up latency.
+     */
+    YIELDING,
+
+    /**
+     * Spin without giving up the CPU. This has the lowest latency, but every waiting
+     * thread keeps a core busy. Only use this with dedicated cores.
+     */
+    BUSY_SPIN
+}
+
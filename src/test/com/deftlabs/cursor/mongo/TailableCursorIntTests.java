@@ -62,6 +62,33 @@ public final class TailableCursorIntTests {
         } finally { tailableCursor.stop(); }
     }
 
+    @Test
+    public void testGroup() throws Exception {
+        getDb().dropDatabase();
+
+        final TailableCursorGroup group = new TailableCursorGroup("mongodb://127.0.0.1:27017", 1);
+
+        for (final String name : new String [] { "test", "test2" }) {
+            final TailableCursorOptions options
+            = new TailableCursorOptions("mongodb://127.0.0.1:27017", "com_deftlabs_cursor_mongo_tailableCursorTest", name);
+            options.setDefaultCappedCollectionSize(10485760);
+            group.add(options);
+        }
+
+        for (int idx=0; idx < 10; idx++) getCollection().insert(new BasicDBObject());
+        for (int idx=0; idx < 10; idx++) getDb().getCollection("test2").insert(new BasicDBObject());
+
+        try {
+            group.start();
+
+            int test2Count = 0;
+            for (int idx=0; idx < 20; idx++) if (group.nextDoc().getCollectionName().equals("test2")) test2Count++;
+
+            assertEquals(10, test2Count);
+
+        } finally { group.stop(); }
+    }
+
     @Before
     public void init() throws Exception {
         _mongo = new Mongo(new MongoURI("mongodb://127.0.0.1:27017"));
@@ -0,0 +1,59 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// JUnit
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test the no doc backoff.
+ */
+public final class BackoffUnitTests {
+
+    @Test
+    public void testGrowsAndResets() throws Exception {
+        _options.setMinNoDocSleepTime(10);
+        _options.setNoDocSleepTime(100);
+
+        final Backoff backoff = new Backoff(_options);
+
+        long bound = 10;
+        for (int idx=0; idx < 10; idx++) {
+            final long sleep = backoff.next(false);
+            assertTrue(sleep >= bound / 2 && sleep <= bound);
+            bound = Math.min(100, bound * 2);
+        }
+
+        assertEquals(0, backoff.next(true));
+
+        final long sleep = backoff.next(false);
+        assertTrue(sleep >= 5 && sleep <= 10);
+    }
+
+    @Test
+    public void testFixed() throws Exception {
+        _options.setMinNoDocSleepTime(100);
+        _options.setNoDocSleepTime(100);
+
+        final Backoff backoff = new Backoff(_options);
+        for (int idx=0; idx < 5; idx++) assertEquals(100, backoff.next(false));
+    }
+
+    private final TailableCursorOptions _options = new TailableCursorOptions("mongodb://127.0.0.1:27017", "test", "test");
+}
+
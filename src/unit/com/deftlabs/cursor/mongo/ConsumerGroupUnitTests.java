@@ -0,0 +1,181 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+import com.mongodb.BasicDBObject;
+import org.bson.types.Binary;
+
+// JUnit
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+// Java
+import java.util.Set;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Test consumer groups on the in-memory tail and lease stores.
+ */
+public final class ConsumerGroupUnitTests {
+
+    @Test
+    public void testRebalance() throws Exception {
+        final Member a = new Member("a");
+        a._cursor.start();
+
+        try {
+            insert(0, 100);
+            waitFor(0, 100, a);
+            assertEquals(8, a._cursor.partitionsHeld());
+
+            final Member b = new Member("b");
+            b._cursor.start();
+
+            try {
+                // Wait for a to give up half the partitions and b to take them.
+                final long deadline = System.currentTimeMillis() + 5000;
+                while (a._cursor.partitionsHeld() != 4 || b._cursor.partitionsHeld() != 4) {
+                    assertTrue(System.currentTimeMillis() < deadline);
+                    Thread.sleep(10);
+                }
+
+                insert(100, 200);
+                waitFor(100, 200, a, b);
+
+                // b carries on from the positions a left in the leases.
+                assertFalse(b._ids.isEmpty());
+                for (final Integer id : b._ids) assertTrue(id >= 100);
+
+            } finally { a._cursor.stop(); }
+
+            // Once a has left, b takes all the partitions.
+            insert(200, 300);
+            waitFor(200, 300, b);
+            assertEquals(8, b._cursor.partitionsHeld());
+
+            b._cursor.stop();
+        } finally { if (a._cursor.isRunning()) a._cursor.stop(); }
+    }
+
+    @Test
+    public void testPositionMovesOnAcknowledge() throws Exception {
+        insert(0, 20);
+
+        // a reads every doc into its buffer but only hands out the first five.
+        final Member a = new Member("a", false);
+        a._cursor.start();
+
+        try {
+            for (int idx=0; idx < 5; idx++) assertNotNull(a._cursor.pollDoc(1, TimeUnit.SECONDS));
+            while (a._cursor.getMetrics().getDocsRead() < 20) Thread.sleep(1);
+        } finally { a._cursor.stop(); }
+
+        // b takes the partitions at the positions a acknowledged, so no doc is skipped.
+        final Member b = new Member("b", true);
+        b._cursor.start();
+
+        try { waitFor(5, 20, b);
+        } finally { b._cursor.stop(); }
+    }
+
+    @Test
+    public void testPartitionByContent() throws Exception {
+        // Each member decodes its own copy of a doc, so equal keys must land in the same partition.
+        final byte [] data = { 1, 2, 3, 4, 5, 6, 7, 8 };
+        for (int count=1; count <= 16; count++) {
+            assertEquals(PartitionCoordinator.partition(data, count), PartitionCoordinator.partition(data.clone(), count));
+            assertEquals(   PartitionCoordinator.partition(new Binary(data), count),
+                            PartitionCoordinator.partition(new Binary(data.clone()), count));
+            assertEquals(   PartitionCoordinator.partition(new BasicDBObject("k", data), count),
+                            PartitionCoordinator.partition(new BasicDBObject("k", data.clone()), count));
+            assertEquals(0, PartitionCoordinator.partition(null, count));
+        }
+
+        // The keys are spread over the partitions.
+        final int [] counts = new int[4];
+        for (int idx=0; idx < 4000; idx++) counts[PartitionCoordinator.partition(new byte [] { (byte)idx, (byte)(idx >> 8) }, 4)]++;
+        for (final int count : counts) assertTrue(count > 500);
+
+        try { PartitionCoordinator.partition(new Object(), 4); fail();
+        } catch (final TailableCursorException tce) { /* expected */ }
+    }
+
+    /**
+     * Wait for the docs to be delivered by one of the members.
+     */
+    private void waitFor(final int pFrom, final int pTo, final Member ... pMembers) throws Exception {
+        final long deadline = System.currentTimeMillis() + 5000;
+        for (int idx=pFrom; idx < pTo; idx++) {
+            while (!delivered(idx, pMembers)) {
+                assertTrue("Not delivered: " + idx, System.currentTimeMillis() < deadline);
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    private boolean delivered(final int pId, final Member [] pMembers) {
+        for (final Member member : pMembers) if (member._ids.contains(pId)) return true;
+        return false;
+    }
+
+    private void insert(final int pFrom, final int pTo)
+    { for (int idx=pFrom; idx < pTo; idx++) _source.insert(DB, COLLECTION, new BasicDBObject("_id", idx)); }
+
+    private class Member {
+        private Member(final String pId) { this(pId, true); }
+
+        /**
+         * @param pListener False to pull the docs with nextDoc instead of a doc listener.
+         */
+        private Member(final String pId, final boolean pListener) {
+            final TailableCursorOptions options = new TailableCursorOptions("mongodb://127.0.0.1:27017", DB, COLLECTION);
+            options.setNoDocSleepTime(10);
+            options.setResumeField("_id");
+            options.setLeaseStore(_store);
+            options.setConsumerGroup(GROUP);
+            options.setMemberId(pId);
+            options.setPartitionCount(8);
+            options.setLeaseTime(LEASE_TIME);
+            if (pListener) {
+                options.setDocListener(new TailableCursorDocListener() {
+                    @Override
+                    public void nextDoc(final DBObject pDoc) { _ids.add((Integer)pDoc.get("_id")); }
+                });
+            }
+            _cursor = new TailableCursorImpl(options, _source);
+        }
+
+        private final TailableCursorImpl _cursor;
+        private final Set<Integer> _ids = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    }
+
+    private final MemoryTailSource _source = new MemoryTailSource();
+    { _source.createCollection(DB, COLLECTION, 1000); }
+
+    private final MemoryLeaseStore _store = new MemoryLeaseStore();
+
+    private static final String DB = "test";
+    private static final String COLLECTION = "group";
+    private static final String GROUP = "test.group";
+    private static final long LEASE_TIME = 300; // time in ms
+}
+
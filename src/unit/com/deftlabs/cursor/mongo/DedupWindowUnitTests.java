@@ -0,0 +1,133 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.BasicDBObject;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+
+// JUnit
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+// Java
+import java.util.Set;
+import java.util.UUID;
+import java.util.Random;
+import java.util.HashSet;
+import java.util.LinkedList;
+
+/**
+ * Test the dedup window.
+ */
+public final class DedupWindowUnitTests {
+
+    @Test
+    public void testEvictByCount() throws Exception {
+        final DedupWindow window = new DedupWindow(3, 0, null);
+        final ObjectId [] ids = { new ObjectId(), new ObjectId(), new ObjectId(), new ObjectId() };
+
+        for (final ObjectId id : ids) assertTrue(window.add(new BasicDBObject("_id", id)));
+        assertEquals(3, window.size());
+
+        // The first id has been evicted, the others are duplicates.
+        assertFalse(window.add(new BasicDBObject("_id", ids[3])));
+        assertFalse(window.add(new BasicDBObject("_id", ids[1])));
+        assertTrue(window.add(new BasicDBObject("_id", ids[0])));
+
+        // Docs without a key are never dropped.
+        assertTrue(window.add(new BasicDBObject("a", 1)));
+        assertTrue(window.add(new BasicDBObject("a", 1)));
+
+        // Equal numbers of different types are the same key.
+        assertTrue(window.add(new BasicDBObject("_id", 5)));
+        assertFalse(window.add(new BasicDBObject("_id", 5L)));
+    }
+
+    @Test
+    public void testFingerprintCollisions() throws Exception {
+        // Keys with equal 32 bit hash codes have different fingerprints.
+        assertEquals(new UUID(1, 0).hashCode(), new UUID(0, 1).hashCode());
+        assertFalse(DedupWindow.fingerprint(new UUID(1, 0)) == DedupWindow.fingerprint(new UUID(0, 1)));
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        assertFalse(DedupWindow.fingerprint("Aa") == DedupWindow.fingerprint("BB"));
+        assertFalse(DedupWindow.fingerprint(Boolean.TRUE) == DedupWindow.fingerprint(Boolean.TRUE.hashCode()));
+
+        // Binary keys are hashed by contents (Binary has an identity hash code).
+        final byte [] data = { 1, 2, 3 };
+        assertEquals(DedupWindow.fingerprint(new Binary(data)), DedupWindow.fingerprint(new Binary(data.clone())));
+        assertFalse(DedupWindow.fingerprint(new Binary(data)) == DedupWindow.fingerprint(new Binary(new byte [] { 1, 2, 4 })));
+        assertFalse(DedupWindow.fingerprint(new Binary(data)) == DedupWindow.fingerprint(new Binary((byte)4, data)));
+        assertEquals(DedupWindow.fingerprint(data), DedupWindow.fingerprint(data.clone()));
+
+        // Embedded doc keys depend on every field name and value.
+        assertEquals(   DedupWindow.fingerprint(new BasicDBObject("a", 1).append("b", "x")),
+                        DedupWindow.fingerprint(new BasicDBObject("a", 1L).append("b", "x")));
+        assertFalse(    DedupWindow.fingerprint(new BasicDBObject("a", 1).append("b", "x"))
+                        == DedupWindow.fingerprint(new BasicDBObject("a", 1).append("c", "x")));
+        assertFalse(    DedupWindow.fingerprint(new BasicDBObject("a", 1).append("b", 2))
+                        == DedupWindow.fingerprint(new BasicDBObject("a", 2).append("b", 1)));
+
+        // A random sample of UUIDs has no collisions.
+        final Set<Long> fingerprints = new HashSet<Long>();
+        for (int idx=0; idx < 100000; idx++) assertTrue(fingerprints.add(DedupWindow.fingerprint(UUID.randomUUID())));
+
+        try { DedupWindow.fingerprint(new Object()); fail();
+        } catch (final TailableCursorException tce) { /* expected */ }
+    }
+
+    @Test
+    public void testEvictByTime() throws Exception {
+        final DedupWindow window = new DedupWindow(10, 100, null);
+        assertTrue(window.add(1, 0));
+        assertFalse(window.add(1, 50));
+        assertTrue(window.add(2, 60));
+        assertTrue(window.add(1, 101));
+        assertFalse(window.add(2, 101));
+        assertEquals(2, window.size());
+    }
+
+    /**
+     * Keys that collide on their home slot are checked against a list model while
+     * they are evicted, which exercises the backward shift removal.
+     */
+    @Test
+    public void testAgainstModel() throws Exception {
+        final int capacity = 64;
+        final DedupWindow window = new DedupWindow(capacity, 0, null);
+        final LinkedList<Long> model = new LinkedList<Long>();
+        final Random random = new Random(42);
+
+        for (int idx=0; idx < 100000; idx++) {
+            // Few distinct values, many sharing the low bits used for the home slot.
+            final long fingerprint = ((long)random.nextInt(100) << 32) | (random.nextInt(4) + 1);
+            final boolean added = !model.contains(fingerprint);
+
+            assertEquals(added, window.add(fingerprint, 0));
+
+            if (added) {
+                if (model.size() == capacity) model.removeFirst();
+                model.addLast(fingerprint);
+            }
+
+            assertEquals(model.size(), window.size());
+        }
+    }
+}
+
@@ -0,0 +1,251 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+import com.mongodb.BasicDBObject;
+
+// JUnit
+import org.junit.Test;
+import org.junit.Before;
+import static org.junit.Assert.*;
+
+// Java
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test the dispatch threads on the in-memory tail source.
+ */
+public final class DocDispatcherUnitTests {
+
+    @Test
+    public void testPerKeyOrder() throws Exception {
+        final MemoryTailSource source = new MemoryTailSource();
+        source.createCollection(DB, COLLECTION, 1000);
+
+        final ConcurrentHashMap<Object, List<Integer>> handled = new ConcurrentHashMap<Object, List<Integer>>();
+
+        _options.setDispatchThreads(4);
+        _options.setDispatchQueueSize(8);
+        _options.setDispatchKeyExtractor(new TailableCursorKeyExtractor() {
+            @Override
+            public Object key(final DBObject pDoc) { return pDoc.get("key"); }
+        });
+        _options.setDocListener(new TailableCursorDocListener() {
+            @Override
+            public void nextDoc(final DBObject pDoc) {
+                if (((Integer)pDoc.get("_id")) % 7 == 0) Thread.yield();
+                handled.putIfAbsent(pDoc.get("key"), Collections.synchronizedList(new ArrayList<Integer>()));
+                handled.get(pDoc.get("key")).add((Integer)pDoc.get("_id"));
+            }
+        });
+
+        final TailableCursor cursor = new TailableCursorImpl(_options, source);
+        cursor.start();
+
+        try {
+            for (int idx=0; idx < 500; idx++) source.insert(DB, COLLECTION, new BasicDBObject("_id", idx).append("key", idx % 5));
+
+            while (!Integer.valueOf(499).equals(cursor.getMetrics().getLastDeliveredPosition())) Thread.sleep(1);
+
+            assertEquals(5, handled.size());
+            for (final List<Integer> ids : handled.values()) {
+                assertEquals(100, ids.size());
+                for (int idx=1; idx < ids.size(); idx++) assertTrue(ids.get(idx - 1) < ids.get(idx));
+            }
+        } finally { cursor.stop(); }
+    }
+
+    @Test
+    public void testAckInOrder() throws Exception {
+        final MemoryTailSource source = new MemoryTailSource();
+        source.createCollection(DB, COLLECTION, 1000);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Object> handled = Collections.synchronizedList(new ArrayList<Object>());
+
+        // Round robin: the first thread is held on doc 0 while the second handles 1 and 3.
+        _options.setDispatchThreads(2);
+        _options.setDocListener(blockOnFirst(started, release, handled));
+
+        final TailableCursor cursor = new TailableCursorImpl(_options, source);
+        cursor.start();
+
+        try {
+            source.insert(DB, COLLECTION, new BasicDBObject("_id", 0));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            for (int idx=1; idx < 4; idx++) source.insert(DB, COLLECTION, new BasicDBObject("_id", idx));
+
+            while (handled.size() < 2) Thread.sleep(1);
+            assertTrue(handled.contains(1) && handled.contains(3));
+            assertNull(cursor.getMetrics().getLastDeliveredPosition());
+
+            release.countDown();
+            while (!Integer.valueOf(3).equals(cursor.getMetrics().getLastDeliveredPosition())) Thread.sleep(1);
+            assertEquals(4, handled.size());
+        } finally { cursor.stop(); }
+    }
+
+    @Test
+    public void testDrop() throws Exception {
+        final MemoryTailSource source = new MemoryTailSource();
+        source.createCollection(DB, COLLECTION, 1000);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Object> handled = Collections.synchronizedList(new ArrayList<Object>());
+
+        // One thread held on doc 0 and a queue of two: docs 1 and 2 are queued and doc 3 is dropped.
+        _options.setDispatchThreads(1);
+        _options.setDispatchQueueSize(2);
+        _options.setDispatchBackpressure(TailableCursorBackpressure.DROP);
+        _options.setDocListener(blockOnFirst(started, release, handled));
+
+        final TailableCursor cursor = new TailableCursorImpl(_options, source);
+        cursor.start();
+
+        try {
+            source.insert(DB, COLLECTION, new BasicDBObject("_id", 0));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            for (int idx=1; idx < 10; idx++) source.insert(DB, COLLECTION, new BasicDBObject("_id", idx));
+
+            while (cursor.getMetrics().getDispatchDroppedCount() < 1) Thread.sleep(1);
+
+            release.countDown();
+            while (!Integer.valueOf(9).equals(cursor.getMetrics().getLastDeliveredPosition())) Thread.sleep(1);
+
+            assertFalse(handled.contains(3));
+            assertEquals(10, handled.size() + cursor.getMetrics().getDispatchDroppedCount());
+        } finally { cursor.stop(); }
+    }
+
+    @Test
+    public void testCallerRuns() throws Exception {
+        final MemoryTailSource source = new MemoryTailSource();
+        source.createCollection(DB, COLLECTION, 1000);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Object> handled = Collections.synchronizedList(new ArrayList<Object>());
+        final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+
+        _options.setDispatchThreads(1);
+        _options.setDispatchQueueSize(2);
+        _options.setDispatchBackpressure(TailableCursorBackpressure.CALLER_RUNS);
+        final TailableCursorDocListener listener = blockOnFirst(started, release, handled);
+        _options.setDocListener(new TailableCursorDocListener() {
+            @Override
+            public void nextDoc(final DBObject pDoc) {
+                if (Integer.valueOf(3).equals(pDoc.get("_id"))) threads.add(Thread.currentThread().getName());
+                listener.nextDoc(pDoc);
+            }
+        });
+
+        final TailableCursor cursor = new TailableCursorImpl(_options, source);
+        cursor.start();
+
+        try {
+            source.insert(DB, COLLECTION, new BasicDBObject("_id", 0));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            for (int idx=1; idx < 10; idx++) source.insert(DB, COLLECTION, new BasicDBObject("_id", idx));
+
+            // Doc 3 is handled on the reader while the dispatch thread is held.
+            while (!handled.contains(3)) Thread.sleep(1);
+            assertFalse(threads.get(0).startsWith("TailableCursorDispatcher"));
+            assertNull(cursor.getMetrics().getLastDeliveredPosition());
+
+            release.countDown();
+            while (!Integer.valueOf(9).equals(cursor.getMetrics().getLastDeliveredPosition())) Thread.sleep(1);
+            assertEquals(10, handled.size());
+            assertEquals(0, cursor.getMetrics().getDispatchDroppedCount());
+        } finally { cursor.stop(); }
+    }
+
+    @Test
+    public void testKeyExtractorError() throws Exception {
+        final MemoryTailSource source = new MemoryTailSource();
+        source.createCollection(DB, COLLECTION, 1000);
+
+        final List<Object> handled = Collections.synchronizedList(new ArrayList<Object>());
+
+        _options.setErrorSleepTime(0);
+        _options.setErrorListener(new TailableCursorErrorListener() {
+            @Override
+            public void onError(final Throwable pT) { }
+        });
+        _options.setDispatchThreads(1);
+        _options.setDispatchKeyExtractor(new TailableCursorKeyExtractor() {
+            @Override
+            public Object key(final DBObject pDoc) {
+                if (Integer.valueOf(1).equals(pDoc.get("_id"))) throw new IllegalStateException("no key");
+                return pDoc.get("_id");
+            }
+        });
+        _options.setDocListener(new TailableCursorDocListener() {
+            @Override
+            public void nextDoc(final DBObject pDoc) { handled.add(pDoc.get("_id")); }
+        });
+
+        final TailableCursor cursor = new TailableCursorImpl(_options, source);
+        cursor.start();
+
+        try {
+            for (int idx=0; idx < 5; idx++) source.insert(DB, COLLECTION, new BasicDBObject("_id", idx));
+
+            // The doc without a key does not hold back the acks of the docs after it.
+            while (!Integer.valueOf(4).equals(cursor.getMetrics().getLastDeliveredPosition())) Thread.sleep(1);
+            assertFalse(handled.contains(1));
+            assertEquals(4, handled.size());
+        } finally { cursor.stop(); }
+    }
+
+    /**
+     * Returns a listener that records the docs and holds the thread that gets doc 0
+     * until released.
+     */
+    private TailableCursorDocListener blockOnFirst(final CountDownLatch pStarted, final CountDownLatch pRelease, final List<Object> pHandled) {
+        return new TailableCursorDocListener() {
+            @Override
+            public void nextDoc(final DBObject pDoc) {
+                if (Integer.valueOf(0).equals(pDoc.get("_id"))) {
+                    pStarted.countDown();
+                    try { pRelease.await(); } catch (final InterruptedException ie) { throw new IllegalStateException(ie); }
+                }
+                pHandled.add(pDoc.get("_id"));
+            }
+        };
+    }
+
+    /**
+     * The tests wait on the last delivered position, which is tracked by the resume field.
+     */
+    @Before
+    public void init() { _options.setResumeField("_id"); }
+
+    private final TailableCursorOptions _options = new TailableCursorOptions("mongodb://127.0.0.1:27017", DB, COLLECTION);
+
+    private static final String DB = "test";
+    private static final String COLLECTION = "dispatch";
+}
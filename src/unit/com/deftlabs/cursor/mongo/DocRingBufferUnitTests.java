@@ -0,0 +1,176 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+import com.mongodb.BasicDBObject;
+
+// JUnit
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+// Java
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Test the prefetch ring buffer.
+ */
+public final class DocRingBufferUnitTests {
+
+    @Test
+    public void testWrapAround() throws Exception {
+        final DocRingBuffer<DBObject> buffer = new DocRingBuffer<DBObject>(3, 0);
+
+        for (int idx=0; idx < 10; idx++) {
+            buffer.put(new BasicDBObject("_id", idx), 0);
+            assertEquals(1, buffer.size());
+            assertEquals(idx, ((BasicDBObject)buffer.poll()).getInt("_id"));
+        }
+
+        assertNull(buffer.poll());
+    }
+
+    @Test
+    public void testOneSlot() throws Exception {
+        final DocRingBuffer<DBObject> buffer = new DocRingBuffer<DBObject>(1, 0);
+        assertEquals(2, buffer.capacity());
+
+        assertTrue(buffer.offer(new BasicDBObject("_id", 0), 0));
+        assertTrue(buffer.offer(new BasicDBObject("_id", 1), 0));
+        assertFalse(buffer.offer(new BasicDBObject("_id", 2), 0));
+
+        assertEquals(0, buffer.poll().get("_id"));
+        assertEquals(1, buffer.poll().get("_id"));
+        assertNull(buffer.poll());
+    }
+
+    @Test
+    public void testOneSlotWithLatency() throws Exception {
+        final LatencyRecorder latency = new LatencyRecorder();
+        final DocRingBuffer<DBObject> buffer
+        = new DocRingBuffer<DBObject>(1, 0, TailableCursorWaitStrategy.BLOCKING, latency);
+        assertEquals(2, buffer.capacity());
+
+        for (int idx=0; idx < 6; idx += 2) {
+            assertTrue(buffer.offer(new BasicDBObject("_id", idx), 0));
+            assertTrue(buffer.offer(new BasicDBObject("_id", idx + 1), 0));
+            assertEquals(idx, buffer.poll().get("_id"));
+            assertEquals(idx + 1, buffer.poll().get("_id"));
+        }
+
+        assertEquals(6, latency.snapshot().getCount());
+    }
+
+    @Test
+    public void testBlocksWhenFull() throws Exception {
+        final DocRingBuffer<DBObject> buffer = new DocRingBuffer<DBObject>(2, 0);
+        buffer.put(new BasicDBObject("_id", 0), 0);
+        buffer.put(new BasicDBObject("_id", 1), 0);
+
+        final CountDownLatch done = put(buffer, new BasicDBObject("_id", 2), 0);
+
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(0, ((BasicDBObject)buffer.poll()).getInt("_id"));
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(2, buffer.size());
+    }
+
+    @Test
+    public void testByteBudget() throws Exception {
+        final DocRingBuffer<DBObject> buffer = new DocRingBuffer<DBObject>(100, 100);
+
+        // An oversized doc is let in when the buffer is empty.
+        buffer.put(new BasicDBObject("_id", 0), 150);
+
+        final CountDownLatch done = put(buffer, new BasicDBObject("_id", 1), 10);
+
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+        assertNotNull(buffer.poll());
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testTimedPoll() throws Exception {
+        final DocRingBuffer<DBObject> buffer = new DocRingBuffer<DBObject>(2, 0);
+        assertNull(buffer.poll(50, TimeUnit.MILLISECONDS));
+        buffer.put(new BasicDBObject("_id", 0), 0);
+        assertNotNull(buffer.poll(50, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        final DocRingBuffer<DBObject> buffer = new DocRingBuffer<DBObject>(2, 0);
+        buffer.put(new BasicDBObject("_id", 0), 0);
+        buffer.close();
+
+        assertNotNull(buffer.take());
+
+        try { buffer.take(); fail();
+        } catch (final InterruptedException ie) { /* expected */ }
+
+        try { buffer.put(new BasicDBObject("_id", 1), 0); fail();
+        } catch (final InterruptedException ie) { /* expected */ }
+    }
+
+    @Test
+    public void testWaitStrategies() throws Exception {
+        for (final TailableCursorWaitStrategy strategy : TailableCursorWaitStrategy.values()) {
+            // Busy spinning consumers starve the producer without a core each.
+            if (strategy == TailableCursorWaitStrategy.BUSY_SPIN
+                && Runtime.getRuntime().availableProcessors() <= CONSUMER_COUNT) continue;
+
+            final DocRingBuffer<DBObject> buffer = new DocRingBuffer<DBObject>(16, 0, strategy);
+            final AtomicLong sum = new AtomicLong(0);
+            final CountDownLatch done = new CountDownLatch(CONSUMER_COUNT);
+
+            for (int idx=0; idx < CONSUMER_COUNT; idx++) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try { while (true) sum.addAndGet(((BasicDBObject)buffer.take()).getInt("_id"));
+                        } catch (final InterruptedException ie) { done.countDown(); }
+                    }
+                }).start();
+            }
+
+            for (int idx=0; idx < DOC_COUNT; idx++) buffer.put(new BasicDBObject("_id", idx), 0);
+
+            buffer.close();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(((long)DOC_COUNT * (DOC_COUNT - 1)) / 2, sum.get());
+        }
+    }
+
+    private CountDownLatch put(final DocRingBuffer<DBObject> pBuffer, final DBObject pDoc, final int pSize) {
+        final CountDownLatch done = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try { pBuffer.put(pDoc, pSize); done.countDown();
+                } catch (final InterruptedException ie) { /* nada */ }
+            }
+        }).start();
+        return done;
+    }
+
+    private static final int CONSUMER_COUNT = 4;
+    private static final int DOC_COUNT = 20000;
+}
+
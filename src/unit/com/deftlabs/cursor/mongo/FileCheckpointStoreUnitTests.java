@@ -0,0 +1,119 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import org.bson.types.ObjectId;
+
+// JUnit
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+import static org.junit.Assert.*;
+
+// Java
+import java.io.File;
+import java.io.RandomAccessFile;
+
+/**
+ * Test the file checkpoint store.
+ */
+public final class FileCheckpointStoreUnitTests {
+
+    @Test
+    public void testReopen() throws Exception {
+        final ObjectId id = new ObjectId();
+
+        CheckpointStore store = new FileCheckpointStore(_file);
+        assertNull(store.load("db.a"));
+        store.save("db.a", 1);
+        store.save("db.b", id);
+        store.save("db.a", 2);
+        store.close();
+
+        store = new FileCheckpointStore(_file);
+        assertEquals(2, store.load("db.a"));
+        assertEquals(id, store.load("db.b"));
+        store.close();
+    }
+
+    @Test
+    public void testTornRecord() throws Exception {
+        CheckpointStore store = new FileCheckpointStore(_file);
+        store.save("db.a", 1);
+        store.close();
+
+        final long length = _file.length();
+
+        final RandomAccessFile raf = new RandomAccessFile(_file, "rw");
+        try { raf.seek(length); raf.write(new byte [] { 40, 0, 0, 0, 2 });
+        } finally { raf.close(); }
+
+        store = new FileCheckpointStore(_file);
+        assertEquals(1, store.load("db.a"));
+        assertEquals(length, _file.length());
+        store.close();
+    }
+
+    @Test
+    public void testTornRecordBody() throws Exception {
+        CheckpointStore store = new FileCheckpointStore(_file);
+        store.save("db.a", 1);
+        store.close();
+
+        final long length = _file.length();
+
+        // The length made it to disk but the body did not (zeros, then garbage).
+        final byte [][] bodies = { new byte[16], { 16, 0, 0, 0, 9, 9, 9, 9, 9, 9, 9, 9, 9, 9, 9, 0 } };
+
+        for (final byte [] body : bodies) {
+            final RandomAccessFile raf = new RandomAccessFile(_file, "rw");
+            try { raf.seek(length); raf.write(new byte [] { 20, 0, 0, 0 }); raf.write(body);
+            } finally { raf.close(); }
+
+            store = new FileCheckpointStore(_file);
+            assertEquals(1, store.load("db.a"));
+            assertEquals(length, _file.length());
+            store.close();
+        }
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        CheckpointStore store = new FileCheckpointStore(_file, 256);
+        for (int idx=0; idx < 100; idx++) store.save("db.a", idx);
+        store.close();
+
+        assertTrue(_file.length() < 512);
+
+        store = new FileCheckpointStore(_file);
+        assertEquals(99, store.load("db.a"));
+        store.close();
+    }
+
+    @Before
+    public void init() throws Exception {
+        _file = File.createTempFile("checkpoint", ".bson");
+        _file.delete();
+    }
+
+    @After
+    public void cleanup() throws Exception { _file.delete(); }
+
+    private File _file;
+}
+
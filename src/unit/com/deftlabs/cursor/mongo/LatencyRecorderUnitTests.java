@@ -0,0 +1,76 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// JUnit
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test the striped latency histogram.
+ */
+public final class LatencyRecorderUnitTests {
+
+    @Test
+    public void testPercentiles() throws Exception {
+        final LatencyRecorder recorder = new LatencyRecorder();
+
+        for (int idx=0; idx < 99; idx++) recorder.record(100);
+        recorder.record(1000000);
+
+        final TailableCursorHistogram histogram = recorder.snapshot();
+
+        assertEquals(100, histogram.getCount());
+        assertEquals((99 * 100) + 1000000, histogram.getSumNanos());
+        assertEquals(128, histogram.getPercentileNanos(50));
+        assertEquals(128, histogram.getPercentileNanos(99));
+        assertEquals(1L << 20, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    public void testThreads() throws Exception {
+        final LatencyRecorder recorder = new LatencyRecorder();
+        final Thread [] threads = new Thread[4];
+
+        for (int idx=0; idx < threads.length; idx++) {
+            threads[idx] = new Thread(new Runnable() {
+                @Override
+                public void run() { for (int count=0; count < 10000; count++) recorder.record(count); }
+            });
+            threads[idx].start();
+        }
+
+        for (final Thread thread : threads) thread.join();
+
+        assertEquals(40000, recorder.snapshot().getCount());
+    }
+
+    @Test
+    public void testBufferHandoff() throws Exception {
+        final LatencyRecorder recorder = new LatencyRecorder();
+        final DocRingBuffer<Object> buffer = new DocRingBuffer<Object>(2, 0, TailableCursorWaitStrategy.BLOCKING, recorder);
+
+        buffer.put("a", 0);
+        Thread.sleep(5);
+        buffer.take();
+
+        final TailableCursorHistogram histogram = recorder.snapshot();
+        assertEquals(1, histogram.getCount());
+        assertTrue(histogram.getSumNanos() >= 5000000);
+    }
+}
+
@@ -0,0 +1,102 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.BasicDBObject;
+
+// JUnit
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+// Java
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test the in-memory tail source.
+ */
+public final class MemoryTailSourceUnitTests {
+
+    @Test
+    public void testTail() throws Exception {
+        final MemoryTailSource source = new MemoryTailSource();
+        source.createCollection(DB, COLLECTION, 10);
+
+        assertTrue(source.open(_options, new BasicDBObject(), null, false).isDead());
+
+        for (int idx=0; idx < 5; idx++) source.insert(DB, COLLECTION, new BasicDBObject("_id", idx));
+
+        final TailSourceCursor cursor
+        = source.open(_options, new BasicDBObject("_id", new BasicDBObject("$gt", 2)), new BasicDBObject("_id", 1), false);
+
+        assertEquals(3, cursor.next().get("_id"));
+        assertEquals(4, cursor.next().get("_id"));
+        assertTrue(cursor.endOfBatch());
+        assertFalse(cursor.hasNext());
+        assertFalse(cursor.isDead());
+
+        source.insert(DB, COLLECTION, new BasicDBObject("_id", 5));
+        assertEquals(5, cursor.next().get("_id"));
+        cursor.close();
+    }
+
+    @Test
+    public void testOverwriteKillsCursor() throws Exception {
+        final MemoryTailSource source = new MemoryTailSource();
+        source.createCollection(DB, COLLECTION, 4);
+        source.insert(DB, COLLECTION, new BasicDBObject("_id", 0));
+
+        final TailSourceCursor cursor = source.open(_options, new BasicDBObject(), null, false);
+        assertEquals(0, cursor.next().get("_id"));
+
+        for (int idx=1; idx < 10; idx++) source.insert(DB, COLLECTION, new BasicDBObject("_id", idx));
+
+        assertFalse(cursor.hasNext());
+        assertTrue(cursor.isDead());
+
+        assertEquals(6, source.open(_options, new BasicDBObject(), null, false).next().get("_id"));
+        assertEquals(9, source.findNewest(_options, null).get("_id"));
+    }
+
+    @Test
+    public void testAwaitData() throws Exception {
+        final MemoryTailSource source = new MemoryTailSource();
+        source.createCollection(DB, COLLECTION, 4);
+        source.insert(DB, COLLECTION, new BasicDBObject("_id", 0));
+
+        final TailSourceCursor cursor = source.open(_options, new BasicDBObject(), null, true);
+        assertEquals(0, cursor.next().get("_id"));
+
+        final CountDownLatch done = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() { if (!cursor.hasNext()) done.countDown(); }
+        }).start();
+
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+        source.killCursors(DB, COLLECTION);
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertTrue(cursor.isDead());
+    }
+
+    private final TailableCursorOptions _options = new TailableCursorOptions("mongodb://127.0.0.1:27017", DB, COLLECTION);
+
+    private static final String DB = "test";
+    private static final String COLLECTION = "memory";
+}
+
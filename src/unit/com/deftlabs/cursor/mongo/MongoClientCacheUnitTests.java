@@ -0,0 +1,89 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.Mongo;
+
+// JUnit
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test the reference counted Mongo instances (no server is needed, the driver connects
+ * lazily).
+ */
+public final class MongoClientCacheUnitTests {
+
+    @Test
+    public void testSharedByUri() throws Exception {
+        final MongoTailSource first = new MongoTailSource(URI);
+        final MongoTailSource second = new MongoTailSource(URI);
+        assertSame(first.getMongo(), second.getMongo());
+
+        first.close();
+        first.close(); // a second close does not release the reference again
+
+        final MongoTailSource third = new MongoTailSource(URI);
+        assertSame(second.getMongo(), third.getMongo());
+
+        second.close();
+        third.close();
+
+        final MongoTailSource fourth = new MongoTailSource(URI);
+        assertNotSame(first.getMongo(), fourth.getMongo());
+        fourth.close();
+    }
+
+    @Test
+    public void testInjected() throws Exception {
+        final Mongo mongo = MongoClientCache.acquire(URI);
+
+        final TailableCursorOptions options = new TailableCursorOptions(URI, "test", "shared");
+        options.setMongo(mongo);
+
+        final MongoTailSource source = MongoTailSource.create(options);
+        assertSame(mongo, source.getMongo());
+        source.close();
+
+        assertSame(mongo, MongoClientCache.acquire(URI));
+        MongoClientCache.release(URI);
+        MongoClientCache.release(URI);
+    }
+
+    @Test
+    public void testReleasedWhenCursorFails() throws Exception {
+        final MongoTailSource held = new MongoTailSource(URI);
+
+        final TailableCursorOptions options = new TailableCursorOptions(URI, "test", "shared");
+        options.setPrefetchCount(0);
+
+        try { new TailableCursorImpl(options); fail();
+        } catch (final TailableCursorException tce) { /* expected */ }
+
+        // The failed cursor gave its reference back, so this was the last one.
+        held.close();
+
+        final MongoTailSource next = new MongoTailSource(URI);
+        assertNotSame(held.getMongo(), next.getMongo());
+        next.close();
+    }
+
+    private static final String URI = "mongodb://127.0.0.1:27017";
+}
+
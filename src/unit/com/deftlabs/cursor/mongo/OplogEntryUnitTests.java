@@ -0,0 +1,102 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+import com.mongodb.BasicDBObject;
+import org.bson.types.BSONTimestamp;
+
+// JUnit
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+// Java
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test the oplog mode and the typed oplog entries.
+ */
+public final class OplogEntryUnitTests {
+
+    @Test
+    public void testEntry() throws Exception {
+        final OplogEntry update = new OplogEntry(entry(1, "u", "db.users", new BasicDBObject("$set", new BasicDBObject("a", 1)))
+                                                .append("o2", new BasicDBObject("_id", 7)));
+
+        assertEquals(OplogOperation.UPDATE, update.getOperation());
+        assertEquals(new BSONTimestamp(1, 0), update.getTimestamp());
+        assertEquals("db", update.getDatabaseName());
+        assertEquals("users", update.getCollectionName());
+        assertEquals(7, update.getDocId());
+
+        final OplogEntry insert = new OplogEntry(entry(2, "i", "db.users", new BasicDBObject("_id", 8)));
+        assertEquals(OplogOperation.INSERT, insert.getOperation());
+        assertEquals(8, insert.getDocId());
+
+        final OplogEntry command = new OplogEntry(entry(3, "c", "db.$cmd", new BasicDBObject("drop", "users")));
+        assertEquals(OplogOperation.COMMAND, command.getOperation());
+        assertNull(command.getDocId());
+
+        assertNull(new OplogEntry(entry(4, "x", "db.users", null)).getOperation());
+    }
+
+    @Test
+    public void testFilters() throws Exception {
+        final MemoryTailSource source = new MemoryTailSource();
+        source.createCollection(TailableCursorOptions.OPLOG_DATABASE, TailableCursorOptions.OPLOG_COLLECTION, 1000);
+
+        final TailableCursorOptions options = TailableCursorOptions.oplog("mongodb://127.0.0.1:27017");
+        options.setNoDocSleepTime(10);
+        options.addOplogNamespace("db.users");
+        options.addOplogNamespace("audit.*");
+        options.addOplogOperation(OplogOperation.INSERT);
+        options.addOplogOperation(OplogOperation.DELETE);
+
+        insert(source, entry(1, "i", "db.users", new BasicDBObject("_id", 1)));
+        insert(source, entry(2, "u", "db.users", new BasicDBObject("_id", 1)));
+        insert(source, entry(3, "i", "db.orders", new BasicDBObject("_id", 2)));
+        insert(source, entry(4, "i", "audit.log", new BasicDBObject("_id", 3)));
+        insert(source, entry(5, "n", "", new BasicDBObject()));
+        insert(source, entry(6, "d", "db.users", new BasicDBObject("_id", 1)));
+
+        final TailableCursor cursor = new TailableCursorImpl(options, source);
+        cursor.start();
+
+        try {
+            assertEquals(new BSONTimestamp(1, 0), cursor.nextEntry().getTimestamp());
+            assertEquals(new BSONTimestamp(4, 0), cursor.nextEntry().getTimestamp());
+            assertEquals(OplogOperation.DELETE, cursor.nextEntry().getOperation());
+
+            // A lost cursor resumes by ts.
+            source.killCursors(TailableCursorOptions.OPLOG_DATABASE, TailableCursorOptions.OPLOG_COLLECTION);
+            insert(source, entry(7, "i", "db.users", new BasicDBObject("_id", 4)));
+
+            assertEquals(4, cursor.nextEntry().getDocId());
+            assertNull(cursor.pollDoc(100, TimeUnit.MILLISECONDS));
+        } finally { cursor.stop(); }
+    }
+
+    private void insert(final MemoryTailSource pSource, final DBObject pEntry)
+    { pSource.insert(TailableCursorOptions.OPLOG_DATABASE, TailableCursorOptions.OPLOG_COLLECTION, pEntry); }
+
+    private BasicDBObject entry(final int pTime, final String pOp, final String pNamespace, final DBObject pObject) {
+        return new BasicDBObject("ts", new BSONTimestamp(pTime, 0)).append("op", pOp).append("ns", pNamespace).append("o", pObject);
+    }
+}
+
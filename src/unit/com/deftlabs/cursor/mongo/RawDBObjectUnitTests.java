@@ -0,0 +1,88 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import org.bson.BSON;
+import org.bson.types.ObjectId;
+import org.bson.types.BSONTimestamp;
+
+// JUnit
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+// Java
+import java.nio.ByteBuffer;
+import java.io.ByteArrayOutputStream;
+import java.util.Date;
+
+/**
+ * Test the raw doc delivery mode.
+ */
+public final class RawDBObjectUnitTests {
+
+    @Test
+    public void testRawBytes() throws Exception {
+        final BasicDBObject source = new BasicDBObject("_id", 5);
+        source.put("name", "test");
+        source.put("nested", new BasicDBObject("value", 10L));
+
+        final byte [] bytes = BSON.encode(source);
+
+        final DBObject doc = RawDBDecoder.FACTORY.create().decode(bytes, (DBCollection)null);
+
+        assertTrue(doc instanceof RawDBObject);
+        assertEquals(5, doc.get("_id"));
+        assertEquals(10L, ((DBObject)doc.get("nested")).get("value"));
+        assertEquals(bytes.length, BsonSize.estimate(doc));
+
+        final ByteBuffer buffer = ((RawDBObject)doc).getByteBuffer();
+        assertTrue(buffer.isReadOnly());
+        assertEquals(ByteBuffer.wrap(bytes), buffer);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((RawDBObject)doc).writeTo(out);
+        assertArrayEquals(bytes, out.toByteArray());
+    }
+
+    @Test
+    public void testFieldLookup() throws Exception {
+        final BasicDBObject source = new BasicDBObject("name", "test");
+        source.put("nested", new BasicDBObject("_id", 1));
+        source.put("n", 1.5);
+        source.put("ts", new BSONTimestamp(1234, 5));
+        source.put("when", new Date(42));
+        source.put("count", 7L);
+        source.put("_id", new ObjectId());
+        source.put("caf\u00e9", 3);
+
+        final DBObject doc = RawDBDecoder.FACTORY.create().decode(BSON.encode(source), (DBCollection)null);
+
+        for (final String key : source.keySet()) assertEquals(key, source.get(key).toString(), doc.get(key).toString());
+
+        assertEquals(source.get("_id"), doc.get("_id"));
+        assertEquals(source.get("ts"), doc.get("ts"));
+        assertEquals(7L, doc.get("count"));
+        assertNull(doc.get("nam"));
+        assertNull(doc.get("names"));
+        assertNull(doc.get("missing"));
+    }
+}
+
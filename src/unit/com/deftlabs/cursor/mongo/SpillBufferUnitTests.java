@@ -0,0 +1,161 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+import com.mongodb.BasicDBObject;
+
+// JUnit
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+import static org.junit.Assert.*;
+
+// Java
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Test the spill to disk prefetch buffer.
+ */
+public final class SpillBufferUnitTests {
+
+    @Test
+    public void testSpillInOrder() throws Exception {
+        final SpillBuffer buffer = new SpillBuffer(options(1024, 0), null);
+
+        for (int idx=0; idx < DOC_COUNT; idx++) buffer.put(new BasicDBObject("_id", idx).append("data", DATA), 0);
+
+        assertEquals(DOC_COUNT, buffer.size());
+        assertEquals(DOC_COUNT - CAPACITY, buffer.spilled());
+        assertTrue(_dir.listFiles().length > 1);
+
+        for (int idx=0; idx < DOC_COUNT; idx++) {
+            final BasicDBObject doc = (BasicDBObject)buffer.take();
+            assertEquals(idx, doc.getInt("_id"));
+            assertEquals(DATA, doc.getString("data"));
+
+            // Once the ring is empty new docs go to the journal behind the spilled ones.
+            if (idx == CAPACITY) buffer.put(new BasicDBObject("_id", DOC_COUNT), 0);
+        }
+
+        assertEquals(DOC_COUNT, ((BasicDBObject)buffer.take()).getInt("_id"));
+        assertNull(buffer.poll());
+
+        // Only the segment being written is left.
+        assertEquals(1, _dir.listFiles().length);
+
+        buffer.close();
+        assertEquals(0, _dir.listFiles().length);
+    }
+
+    @Test
+    public void testRawDocs() throws Exception {
+        final TailableCursorOptions options = options(1024, 0);
+        options.setRawDocs(true);
+
+        final SpillBuffer buffer = new SpillBuffer(options, null);
+        for (int idx=0; idx < CAPACITY + 2; idx++) buffer.put(new BasicDBObject("_id", idx), 0);
+
+        for (int idx=0; idx < CAPACITY + 2; idx++) {
+            final DBObject doc = buffer.take();
+            assertEquals(idx, doc.get("_id"));
+            if (idx >= CAPACITY) assertTrue(doc instanceof RawDBObject);
+        }
+
+        buffer.close();
+    }
+
+    @Test
+    public void testMaxBytes() throws Exception {
+        final SpillBuffer buffer = new SpillBuffer(options(1024, 150), null);
+        for (int idx=0; idx < CAPACITY + 2; idx++) buffer.put(new BasicDBObject("_id", idx).append("data", DATA), 0);
+
+        final CountDownLatch done = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try { buffer.put(new BasicDBObject("_id", CAPACITY + 2).append("data", DATA), 0); done.countDown();
+                } catch (final InterruptedException ie) { /* nada */ }
+            }
+        }).start();
+
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+        for (int idx=0; idx <= CAPACITY; idx++) assertNotNull(buffer.poll());
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+
+        buffer.close();
+    }
+
+    @Test
+    public void testConsumerWokenBySpill() throws Exception {
+        final SpillBuffer buffer = new SpillBuffer(options(64 * 1024, 0), null);
+        final int count = 100000;
+
+        final AtomicLong taken = new AtomicLong(0);
+        final Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // A blocked take must see docs that only went to the journal.
+                    for (int idx=0; idx < count; idx++) { buffer.take(); taken.incrementAndGet(); }
+                } catch (final InterruptedException ie) { /* nada */ }
+            }
+        });
+        consumer.start();
+
+        for (int idx=0; idx < count; idx++) buffer.put(new BasicDBObject("_id", idx), 0);
+
+        consumer.join(10000);
+        assertEquals(count, taken.get());
+
+        buffer.close();
+    }
+
+    private TailableCursorOptions options(final int pSegmentSize, final long pMaxBytes) {
+        final TailableCursorOptions options = new TailableCursorOptions(null, "db", "spill");
+        options.setPrefetchCount(CAPACITY);
+        options.setSpillDirectory(_dir);
+        options.setSpillSegmentSize(pSegmentSize);
+        options.setSpillMaxBytes(pMaxBytes);
+        return options;
+    }
+
+    @Before
+    public void init() throws Exception {
+        _dir = File.createTempFile("spill", "");
+        _dir.delete();
+        _dir.mkdir();
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        for (final File file : _dir.listFiles()) file.delete();
+        _dir.delete();
+    }
+
+    private File _dir;
+
+    private static final int CAPACITY = 4;
+    private static final int DOC_COUNT = 100;
+    private static final String DATA = "0123456789012345678901234567890123456789";
+}
+
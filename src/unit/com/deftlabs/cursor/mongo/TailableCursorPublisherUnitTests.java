@@ -0,0 +1,150 @@
+/**
+ * Copyright 2011, Deft Labs.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.deftlabs.cursor.mongo;
+
+// Mongo
+import com.mongodb.DBObject;
+import com.mongodb.BasicDBObject;
+
+// JUnit
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+import static org.junit.Assert.*;
+
+// Java
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test the publisher on the in-memory tail source.
+ */
+public final class TailableCursorPublisherUnitTests {
+
+    @Test
+    public void testDemand() throws Exception {
+        insert(0, 10);
+
+        final Subscriber subscriber = new Subscriber();
+        _publisher.subscribe(subscriber);
+
+        subscriber._subscription.request(3);
+        for (int idx=0; idx < 3; idx++) assertEquals(idx, subscriber.next().get("_id"));
+        assertNull(subscriber._docs.poll(100, TimeUnit.MILLISECONDS));
+
+        subscriber._subscription.request(7);
+        for (int idx=3; idx < 10; idx++) assertEquals(idx, subscriber.next().get("_id"));
+
+        insert(10, 20);
+        assertNull(subscriber._docs.poll(100, TimeUnit.MILLISECONDS));
+
+        subscriber._subscription.request(Long.MAX_VALUE);
+        subscriber._subscription.request(1);
+        for (int idx=10; idx < 20; idx++) assertEquals(idx, subscriber.next().get("_id"));
+
+        subscriber._subscription.cancel();
+        assertEquals(0, _publisher.getSubscriptionCount());
+    }
+
+    @Test
+    public void testIndependentSubscribers() throws Exception {
+        final Subscriber fast = new Subscriber();
+        final Subscriber slow = new Subscriber();
+        _publisher.subscribe(fast);
+        _publisher.subscribe(slow);
+
+        fast._subscription.request(Long.MAX_VALUE);
+        slow._subscription.request(1);
+
+        insert(0, 50);
+
+        for (int idx=0; idx < 50; idx++) assertEquals(idx, fast.next().get("_id"));
+        assertEquals(0, slow.next().get("_id"));
+        assertNull(slow._docs.poll(100, TimeUnit.MILLISECONDS));
+
+        slow._subscription.request(49);
+        for (int idx=1; idx < 50; idx++) assertEquals(idx, slow.next().get("_id"));
+    }
+
+    @Test
+    public void testCompleteAndError() throws Exception {
+        final Subscriber invalid = new Subscriber();
+        _publisher.subscribe(invalid);
+        invalid._subscription.request(0);
+        assertTrue(invalid._error instanceof IllegalArgumentException);
+
+        final Subscriber subscriber = new Subscriber();
+        _publisher.subscribe(subscriber);
+        assertEquals(1, _publisher.getSubscriptionCount());
+
+        _publisher.close();
+        assertTrue(subscriber._complete);
+        assertNull(subscriber._error);
+        assertEquals(0, _publisher.getSubscriptionCount());
+
+        final Subscriber late = new Subscriber();
+        _publisher.subscribe(late);
+        assertTrue(late._error instanceof TailableCursorException);
+    }
+
+    private void insert(final int pFrom, final int pTo)
+    { for (int idx=pFrom; idx < pTo; idx++) _source.insert(DB, COLLECTION, new BasicDBObject("_id", idx)); }
+
+    private static class Subscriber implements TailableCursorSubscriber {
+        @Override
+        public void onSubscribe(final TailableCursorSubscription pSubscription) { _subscription = pSubscription; }
+        @Override
+        public void onNext(final DBObject pDoc) { _docs.add(pDoc); }
+        @Override
+        public void onError(final Throwable pT) { _error = pT; }
+        @Override
+        public void onComplete() { _complete = true; }
+
+        private DBObject next() throws InterruptedException {
+            final DBObject doc = _docs.poll(5, TimeUnit.SECONDS);
+            assertNotNull(doc);
+            return doc;
+        }
+
+        private volatile TailableCursorSubscription _subscription;
+        private volatile Throwable _error;
+        private volatile boolean _complete;
+        private final BlockingQueue<DBObject> _docs = new LinkedBlockingQueue<DBObject>();
+    }
+
+    @Before
+    public void init() {
+        _source = new MemoryTailSource();
+        _source.createCollection(DB, COLLECTION, 1000);
+
+        final TailableCursorOptions options = new TailableCursorOptions("mongodb://127.0.0.1:27017", DB, COLLECTION);
+        options.setNoDocSleepTime(10);
+        _publisher = new TailableCursorPublisher(options, _source, 2);
+    }
+
+    @After
+    public void cleanup() { if (_publisher.isRunning()) _publisher.close(); }
+
+    private MemoryTailSource _source;
+    private TailableCursorPublisher _publisher;
+
+    private static final String DB = "test";
+    private static final String COLLECTION = "publisher";
+}
+
@@ -16,6 +16,11 @@
 
 package com.deftlabs.cursor.mongo;
 
+// Mongo
+import com.mongodb.DBObject;
+import com.mongodb.BasicDBObject;
+import org.bson.types.ObjectId;
+
 // JUnit
 import org.junit.Test;
 import org.junit.Before;
@@ -27,17 +32,679 @@ import static org.junit.Assert.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.LogManager;
+import java.util.Set;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
 
 /**
- * Test the tailable cursor.
+ * Test the tailable cursor on the in-memory tail source.
  */
 public final class TailableCursorUnitTests {
 
     @Test
-    public void testPlaceholder() throws Exception {
+    public void testCursorResumesAfterKill() throws Exception {
+        _options.setResumeField("_id");
+        final MemoryTailSource source = new MemoryTailSource();
+        source.createCollection(DB, COLLECTION, 1000);
+
+        _options.setNoDocSleepTime(10);
+        final TailableCursor cursor = new TailableCursorImpl(_options, source);
+        cursor.start();
+
+        try {
+            for (int idx=0; idx < 100; idx++) source.insert(DB, COLLECTION, new BasicDBObject("_id", idx));
+            for (int idx=0; idx < 50; idx++) assertEquals(idx, cursor.nextDoc().get("_id"));
+
+            source.killCursors(DB, COLLECTION);
+
+            for (int idx=100; idx < 200; idx++) source.insert(DB, COLLECTION, new BasicDBObject("_id", idx));
+            for (int idx=50; idx < 200; idx++) {
+                final DBObject doc = cursor.nextDoc();
+                assertEquals(idx, doc.get("_id"));
+            }
+
+            assertTrue(cursor.getMetrics().getCursorsCreated() >= 2);
+            assertEquals(0L, cursor.getMetrics().getLagMillis());
+        } finally { cursor.stop(); }
+    }
+
+    @Test
+    public void testOverrunPolicies() throws Exception {
+        for (final TailableCursorOverrunPolicy policy : TailableCursorOverrunPolicy.values()) {
+            final MemoryTailSource source = new MemoryTailSource();
+            source.createCollection(DB, COLLECTION, 10);
+            for (int idx=0; idx < 30; idx++) source.insert(DB, COLLECTION, new BasicDBObject("_id", idx));
+
+            final TailableCursorOptions options = new TailableCursorOptions("mongodb://127.0.0.1:27017", DB, COLLECTION);
+            options.setResumeField("_id");
+            final AtomicLong lost = new AtomicLong(-1);
+            final CountDownLatch overrun = new CountDownLatch(1);
+
+            // Resume from a checkpoint that has been overwritten (20 is the oldest doc).
+            options.setCheckpointStore(new CheckpointStore() {
+                @Override
+                public Object load(final String pKey) { return 5; }
+                @Override
+                public void save(final String pKey, final Object pPosition) { }
+                @Override
+                public void close() { }
+            });
+
+            options.setOverrunPolicy(policy);
+            options.setOverrunListener(new TailableCursorOverrunListener() {
+                @Override
+                public void onOverrun(final Object pLastPosition, final Object pOldestPosition, final long pEstimatedLostDocs)
+                { lost.set(pEstimatedLostDocs); overrun.countDown(); }
+            });
+            options.setErrorListener(new TailableCursorErrorListener() {
+                @Override
+                public void onError(final Throwable pT) { }
+            });
+
+            final TailableCursor cursor = new TailableCursorImpl(options, source);
+            cursor.start();
+
+            try {
+                switch (policy) {
+                    case RESUME_FROM_OLDEST: assertEquals(20, cursor.nextDoc().get("_id")); break;
+
+                    case SKIP_TO_HEAD:
+                        assertTrue(overrun.await(1, TimeUnit.SECONDS));
+                        source.insert(DB, COLLECTION, new BasicDBObject("_id", 30));
+                        assertEquals(30, cursor.nextDoc().get("_id"));
+                        break;
+
+                    default:
+                        try { cursor.nextDoc(); fail();
+                        } catch (final InterruptedException ie) { /* expected */ }
+                        assertFalse(cursor.isRunning());
+                }
+
+                assertEquals(14, lost.get());
+                assertEquals(1, cursor.getMetrics().getOverrunCount());
+            } finally { if (cursor.isRunning()) cursor.stop(); }
+        }
+    }
+
+    @Test
+    public void testNoOverrunWithFilteredQuery() throws Exception {
+        final MemoryTailSource source = new MemoryTailSource();
+        source.createCollection(DB, COLLECTION, 10);
+        source.insert(DB, COLLECTION, new BasicDBObject("_id", 0).append("type", "a"));
+        for (int idx=1; idx <= 15; idx++) source.insert(DB, COLLECTION, new BasicDBObject("_id", idx).append("type", "b"));
+        source.insert(DB, COLLECTION, new BasicDBObject("_id", 16).append("type", "a"));
+
+        final TailableCursorOptions options = new TailableCursorOptions("mongodb://127.0.0.1:27017", DB, COLLECTION);
+        options.setResumeField("_id");
+        options.setInitialQuery(new BasicDBObject("type", "a"));
+        options.setOverrunPolicy(TailableCursorOverrunPolicy.FAIL);
+
+        // Resume after the first doc. Only docs that do not match have been overwritten.
+        options.setCheckpointStore(new CheckpointStore() {
+            @Override
+            public Object load(final String pKey) { return 0; }
+            @Override
+            public void save(final String pKey, final Object pPosition) { }
+            @Override
+            public void close() { }
+        });
+
+        final TailableCursor cursor = new TailableCursorImpl(options, source);
+        cursor.start();
+
+        try {
+            assertEquals(16, cursor.nextDoc().get("_id"));
+
+            // Wrap the ring again while the cursor is tailing.
+            for (int idx=17; idx <= 32; idx++) source.insert(DB, COLLECTION, new BasicDBObject("_id", idx).append("type", "b"));
+            source.insert(DB, COLLECTION, new BasicDBObject("_id", 33).append("type", "a"));
+
+            assertEquals(33, cursor.nextDoc().get("_id"));
+            assertTrue(cursor.isRunning());
+            assertEquals(0, cursor.getMetrics().getOverrunCount());
+        } finally { cursor.stop(); }
+    }
+
+    @Test
+    public void testDrainOnStop() throws Exception {
+        _options.setResumeField("_id");
+        final MemoryTailSource source = new MemoryTailSource();
+        source.createCollection(DB, COLLECTION, 1000);
+
+        final AtomicLong handled = new AtomicLong(0);
+        final AtomicLong saved = new AtomicLong(-1);
+
+        _options.setDispatchThreads(2);
+        _options.setDocListener(new TailableCursorDocListener() {
+            @Override
+            public void nextDoc(final DBObject pDoc) {
+                try { Thread.sleep(1); } catch (final InterruptedException ie) { throw new IllegalStateException(ie); }
+                handled.incrementAndGet();
+            }
+        });
+        _options.setCheckpointStore(new CheckpointStore() {
+            @Override
+            public Object load(final String pKey) { return null; }
+            @Override
+            public void save(final String pKey, final Object pPosition) { saved.set(((Number)pPosition).longValue()); }
+            @Override
+            public void close() { }
+        });
+
+        final TailableCursor cursor = new TailableCursorImpl(_options, source);
+        cursor.start();
+
+        for (int idx=0; idx < 200; idx++) source.insert(DB, COLLECTION, new BasicDBObject("_id", idx));
+
+        while (cursor.getMetrics().getDocsRead() < 200) Thread.sleep(1);
+
+        assertTrue(cursor.stop(10, TimeUnit.SECONDS));
+        assertFalse(cursor.isRunning());
+        assertEquals(200, handled.get());
+        assertEquals(199, saved.get());
+    }
+
+    @Test
+    public void testGroupAcknowledgesOnTake() throws Exception {
+        _options.setResumeField("_id");
+        final MemoryTailSource source = new MemoryTailSource();
+        source.createCollection(DB, COLLECTION, 1000);
+        for (int idx=0; idx < 5; idx++) source.insert(DB, COLLECTION, new BasicDBObject("_id", idx));
+
+        final AtomicLong saved = new AtomicLong(-1);
+
+        _options.setCheckpointStore(new CheckpointStore() {
+            @Override
+            public Object load(final String pKey) { return null; }
+            @Override
+            public void save(final String pKey, final Object pPosition) { saved.set(((Number)pPosition).longValue()); }
+            @Override
+            public void close() { }
+        });
+
+        final TailableCursorGroup group = new TailableCursorGroup(source, 1);
+        group.add(_options);
+        group.start();
+
+        try {
+            assertEquals(0, group.nextDoc().getDoc().get("_id"));
+            assertEquals(1, group.nextDoc().getDoc().get("_id"));
+
+            // Let the reader buffer the other docs.
+            Thread.sleep(100);
+        } finally { group.stop(); }
+
+        // The buffered docs were not handed out, so they are read again on the next start.
+        assertEquals(1, saved.get());
+    }
+
+    @Test
+    public void testJmxNames() throws Exception {
+        final MemoryTailSource source = new MemoryTailSource();
+        source.createCollection(DB, COLLECTION, 1000);
+
+        // Two cursors on the same collection register under different names.
+        _options.setJmxEnabled(true);
+        final TailableCursor first = new TailableCursorImpl(_options, source);
+        final TailableCursor second = new TailableCursorImpl(_options, source);
+        first.start();
+
+        try { second.start(); second.stop();
+        } finally { first.stop(); }
+    }
+
+    @Test
+    public void testFailedStartRollsBack() throws Exception {
+        _options.setResumeField("_id");
+        final MemoryTailSource source = new MemoryTailSource();
+        source.createCollection(DB, COLLECTION, 1000);
+
+        _options.setCheckpointStore(new CheckpointStore() {
+            @Override
+            public Object load(final String pKey) { return null; }
+            @Override
+            public void save(final String pKey, final Object pPosition) { }
+            @Override
+            public void close() { }
+        });
+        _options.setCheckpointKey("rollback");
+
+        // The lease store fails after the checkpointer has been started.
+        _options.setConsumerGroup("rollback");
+        _options.setMemberId("a");
+        _options.setLeaseStore(new MemoryLeaseStore() {
+            @Override
+            public void heartbeat(final String pGroup, final String pMember, final long pTtl)
+            { throw new TailableCursorException("unavailable"); }
+        });
+
+        final TailableCursor cursor = new TailableCursorImpl(_options, source);
+
+        try { cursor.start(); fail();
+        } catch (final TailableCursorException tce) { assertEquals("unavailable", tce.getMessage()); }
+
+        assertFalse(cursor.isRunning());
+        for (final Thread thread : Thread.getAllStackTraces().keySet())
+        { assertFalse(thread.getName(), thread.isAlive() && thread.getName().equals("TailableCursorCheckpointer-rollback")); }
+    }
+
+    @Test
+    public void testCheckpointErrorOnStop() throws Exception {
+        _options.setResumeField("_id");
+        final MemoryTailSource source = new MemoryTailSource();
+        source.createCollection(DB, COLLECTION, 1000);
+        source.insert(DB, COLLECTION, new BasicDBObject("_id", 0));
+
+        final AtomicLong errors = new AtomicLong(0);
+
+        _options.setCheckpointStore(new CheckpointStore() {
+            @Override
+            public Object load(final String pKey) { return null; }
+            @Override
+            public void save(final String pKey, final Object pPosition) { throw new TailableCursorException("unavailable"); }
+            @Override
+            public void close() { }
+        });
+        _options.setErrorListener(new TailableCursorErrorListener() {
+            @Override
+            public void onError(final Throwable pT) { if ("unavailable".equals(pT.getMessage())) errors.incrementAndGet(); }
+        });
+
+        final TailableCursor cursor = new TailableCursorImpl(_options, source);
+        cursor.start();
+        assertEquals(0, cursor.nextDoc().get("_id"));
+
+        // The failed save is reported and the rest of the cursor is shut down.
+        cursor.stop();
+        assertFalse(cursor.isRunning());
+        assertEquals(1, errors.get());
+
+        try { cursor.nextDoc(); fail();
+        } catch (final InterruptedException ie) { /* expected */ }
+    }
+
+    @Test
+    public void testPollAndAsync() throws Exception {
+        final MemoryTailSource source = new MemoryTailSource();
+        source.createCollection(DB, COLLECTION, 1000);
+
+        _options.setNoDocSleepTime(10);
+        final TailableCursor cursor = new TailableCursorImpl(_options, source);
+        cursor.start();
+
+        assertNull(cursor.tryNextDoc());
+        assertNull(cursor.pollDoc(50, TimeUnit.MILLISECONDS));
+
+        final TailableCursorFuture first = cursor.nextDocAsync();
+        final TailableCursorFuture second = cursor.nextDocAsync();
+        final TailableCursorFuture cancelled = cursor.nextDocAsync();
+        final CountDownLatch completed = new CountDownLatch(1);
+        second.addListener(new Runnable() {
+            @Override
+            public void run() { completed.countDown(); }
+        });
+
+        assertFalse(first.isDone());
+        assertTrue(cancelled.cancel(false));
+
+        for (int idx=0; idx < 3; idx++) source.insert(DB, COLLECTION, new BasicDBObject("_id", idx));
+
+        assertEquals(0, first.get(1, TimeUnit.SECONDS).get("_id"));
+        assertTrue(completed.await(1, TimeUnit.SECONDS));
+        assertEquals(1, second.get().get("_id"));
+        assertFalse(cancelled.cancel(false));
+
+        assertEquals(2, cursor.pollDoc(1, TimeUnit.SECONDS).get("_id"));
+
+        source.insert(DB, COLLECTION, new BasicDBObject("_id", 3));
+        assertEquals(3, cursor.nextDocAsync().get(1, TimeUnit.SECONDS).get("_id"));
+
+        final TailableCursorFuture pending = cursor.nextDocAsync();
+        cursor.stop();
 
+        try { pending.get(1, TimeUnit.SECONDS); fail();
+        } catch (final ExecutionException ee) { assertTrue(ee.getCause() instanceof InterruptedException); }
     }
 
+    @Test
+    public void testNextDocs() throws Exception {
+        _options.setResumeField("_id");
+        final MemoryTailSource source = new MemoryTailSource();
+        source.createCollection(DB, COLLECTION, 1000);
+        for (int idx=0; idx < 10; idx++) source.insert(DB, COLLECTION, new BasicDBObject("_id", idx));
+
+        final AtomicLong saved = new AtomicLong(-1);
+        _options.setCheckpointStore(new CheckpointStore() {
+            @Override
+            public Object load(final String pKey) { return null; }
+            @Override
+            public void save(final String pKey, final Object pPosition) { saved.set(((Number)pPosition).longValue()); }
+            @Override
+            public void close() { }
+        });
+
+        final TailableCursor cursor = new TailableCursorImpl(_options, source);
+        cursor.start();
+
+        final List<DBObject> docs = new ArrayList<DBObject>();
+        try {
+            while (docs.size() < 10) {
+                final int count = cursor.nextDocs(docs, 4, 1, TimeUnit.SECONDS);
+                assertTrue(count > 0 && count <= 4);
+            }
+
+            assertEquals(0, cursor.nextDocs(docs, 4, 50, TimeUnit.MILLISECONDS));
+        } finally { cursor.stop(); }
+
+        for (int idx=0; idx < 10; idx++) assertEquals(idx, docs.get(idx).get("_id"));
+        assertEquals(9, saved.get());
+    }
+
+    @Test
+    public void testBatchListener() throws Exception {
+        final MemoryTailSource source = new MemoryTailSource();
+        source.createCollection(DB, COLLECTION, 1000);
+        for (int idx=0; idx < 10; idx++) source.insert(DB, COLLECTION, new BasicDBObject("_id", idx));
+
+        final List<DBObject> docs = new ArrayList<DBObject>();
+        final List<Integer> sizes = new ArrayList<Integer>();
+        final CountDownLatch done = new CountDownLatch(10);
+
+        _options.setPrefetchCount(3);
+        _options.setBatchListener(new TailableCursorBatchListener() {
+            @Override
+            public void nextDocs(final List<DBObject> pDocs) {
+                synchronized (docs) { docs.addAll(pDocs); sizes.add(pDocs.size()); }
+                for (int idx=0; idx < pDocs.size(); idx++) done.countDown();
+            }
+        });
+
+        final TailableCursor cursor = new TailableCursorImpl(_options, source);
+        cursor.start();
+
+        try { assertTrue(done.await(5, TimeUnit.SECONDS));
+        } finally { cursor.stop(); }
+
+        synchronized (docs) {
+            assertEquals(10, docs.size());
+            for (int idx=0; idx < 10; idx++) assertEquals(idx, docs.get(idx).get("_id"));
+            for (final int size : sizes) assertTrue(size > 0 && size <= 3);
+        }
+    }
+
+    @Test
+    public void testFields() throws Exception {
+        final MemoryTailSource source = new MemoryTailSource();
+        source.createCollection(DB, COLLECTION, 1000);
+        for (int idx=0; idx < 5; idx++) {
+            source.insert(DB, COLLECTION, new BasicDBObject("_id", idx).append("ts", idx * 10).append("a", idx).append("b", idx));
+        }
+
+        _options.setNoDocSleepTime(10);
+        _options.setResumeField("ts");
+        _options.setFields(new BasicDBObject("_id", 0).append("a", 1));
+        final TailableCursor cursor = new TailableCursorImpl(_options, source);
+        cursor.start();
+
+        try {
+            for (int idx=0; idx < 5; idx++) {
+                final DBObject doc = cursor.nextDoc();
+                assertEquals(idx, doc.get("a"));
+                assertEquals(idx * 10, doc.get("ts")); // the resume field is added to the projection
+                assertFalse(doc.containsField("_id"));
+                assertFalse(doc.containsField("b"));
+            }
+
+            // The cursor resumes from the projected resume field.
+            source.killCursors(DB, COLLECTION);
+            source.insert(DB, COLLECTION, new BasicDBObject("_id", 5).append("ts", 50).append("a", 5).append("b", 5));
+            assertEquals(5, cursor.nextDoc().get("a"));
+        } finally { cursor.stop(); }
+
+        // The user's projection is left as it was.
+        assertFalse(_options.getFields().containsField("ts"));
+    }
+
+    @Test
+    public void testDocFilters() throws Exception {
+        _options.setResumeField("_id");
+        final MemoryTailSource source = new MemoryTailSource();
+        source.createCollection(DB, COLLECTION, 1000);
+        for (int idx=0; idx < 10; idx++) source.insert(DB, COLLECTION, new BasicDBObject("_id", idx));
+
+        final AtomicLong filtered = new AtomicLong(0);
+
+        _options.setNoDocSleepTime(10);
+        _options.addDocFilter(new TailableCursorDocFilter() {
+            @Override
+            public DBObject filter(final DBObject pDoc) {
+                filtered.incrementAndGet();
+                return (((Integer)pDoc.get("_id")) % 2 == 0) ? pDoc : null;
+            }
+        });
+        _options.addDocFilter(new TailableCursorDocFilter() {
+            @Override
+            public DBObject filter(final DBObject pDoc) { return new BasicDBObject("_id", pDoc.get("_id")).append("even", true); }
+        });
+
+        final TailableCursor cursor = new TailableCursorImpl(_options, source);
+        cursor.start();
+
+        try {
+            for (int idx=0; idx < 10; idx += 2) {
+                final DBObject doc = cursor.nextDoc();
+                assertEquals(idx, doc.get("_id"));
+                assertEquals(Boolean.TRUE, doc.get("even"));
+            }
+
+            while (cursor.getMetrics().getDocsRead() < 10) Thread.sleep(1);
+
+            // The position of the dropped last doc is kept, so it is not read again.
+            source.killCursors(DB, COLLECTION);
+            source.insert(DB, COLLECTION, new BasicDBObject("_id", 10));
+            assertEquals(10, cursor.nextDoc().get("_id"));
+            assertEquals(11, filtered.get());
+            assertEquals(5, cursor.getMetrics().getDocsFiltered());
+        } finally { cursor.stop(); }
+    }
+
+    @Test
+    public void testReaderExecutorAndThreadFactory() throws Exception {
+        final MemoryTailSource source = new MemoryTailSource();
+        source.createCollection(DB, COLLECTION, 1000);
+
+        final AtomicLong created = new AtomicLong(0);
+        final AtomicLong handled = new AtomicLong(0);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        _options.setNoDocSleepTime(10);
+        _options.setReaderExecutor(executor);
+        _options.setThreadFactory(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable pRunnable) {
+                created.incrementAndGet();
+                final Thread thread = new Thread(pRunnable);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        _options.setDispatchThreads(2);
+        _options.setDocListener(new TailableCursorDocListener() {
+            @Override
+            public void nextDoc(final DBObject pDoc) { handled.incrementAndGet(); }
+        });
+
+        final TailableCursor cursor = new TailableCursorImpl(_options, source);
+        cursor.start();
+
+        try {
+            for (int idx=0; idx < 100; idx++) source.insert(DB, COLLECTION, new BasicDBObject("_id", idx));
+            while (cursor.getMetrics().getDocsRead() < 100) Thread.sleep(1);
+
+            assertTrue(cursor.stop(10, TimeUnit.SECONDS));
+            assertEquals(100, handled.get());
+            assertEquals(2, created.get());
+
+            // The reader has given the executor thread back without an interrupt.
+            final Future<Boolean> interrupted = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() { return Thread.currentThread().isInterrupted(); }
+            });
+            assertFalse(interrupted.get(1, TimeUnit.SECONDS));
+        } finally { executor.shutdownNow(); }
+    }
+
+    @Test
+    public void testStartPositions() throws Exception {
+        _options.setResumeField("_id");
+        final long start = System.currentTimeMillis() - 60000;
+        final ObjectId [] ids = new ObjectId[10];
+        for (int idx=0; idx < ids.length; idx++) ids[idx] = new ObjectId(new Date(start + idx * 1000L), 1, idx);
+
+        assertEquals(0, firstDoc(ids, TailableCursorStartPosition.FROM_OLDEST));
+        assertEquals(ids.length, firstDoc(ids, TailableCursorStartPosition.FROM_NOW));
+
+        _options.setStartTime(new Date(start + 5000));
+        assertEquals(5, firstDoc(ids, TailableCursorStartPosition.FROM_TIMESTAMP));
+
+        _options.setStartId(ids[3]);
+        assertEquals(3, firstDoc(ids, TailableCursorStartPosition.FROM_ID));
+    }
+
+    @Test
+    public void testResumeIsOptIn() throws Exception {
+        final MemoryTailSource source = new MemoryTailSource();
+        source.createCollection(DB, COLLECTION, 1000);
+        source.insert(DB, COLLECTION, new BasicDBObject("_id", 5));
+
+        final TailableCursorOptions options = new TailableCursorOptions("mongodb://127.0.0.1:27017", DB, COLLECTION);
+        assertFalse(options.hasResumeField());
+        options.setNoDocSleepTime(10);
+
+        final TailableCursor cursor = new TailableCursorImpl(options, source);
+        cursor.start();
+
+        try {
+            assertEquals(5, cursor.pollDoc(1, TimeUnit.SECONDS).get("_id"));
+
+            // A doc with a lower _id (e.g., an ObjectId from another client) is not
+            // skipped when the cursor is recreated. The docs already read are replayed.
+            source.killCursors(DB, COLLECTION);
+            source.insert(DB, COLLECTION, new BasicDBObject("_id", 3));
+
+            assertEquals(5, cursor.pollDoc(1, TimeUnit.SECONDS).get("_id"));
+            assertEquals(3, cursor.pollDoc(1, TimeUnit.SECONDS).get("_id"));
+        } finally { cursor.stop(); }
+
+        // The features that depend on the resume field order must opt in.
+        options.setOverrunPolicy(TailableCursorOverrunPolicy.FAIL);
+        try { new TailableCursorImpl(options, source); fail();
+        } catch (final TailableCursorException tce) { /* expected */ }
+
+        options.setResumeField("_id");
+        new TailableCursorImpl(options, source);
+    }
+
+
+    @Test
+    public void testLagWithoutQuery() throws Exception {
+        final AtomicInteger queries = new AtomicInteger(0);
+        final MemoryTailSource source = new MemoryTailSource() {
+            @Override
+            public DBObject findNewest(final TailableCursorOptions pOptions, final DBObject pFields) {
+                queries.incrementAndGet();
+                return super.findNewest(pOptions, pFields);
+            }
+        };
+        source.createCollection(DB, COLLECTION, 1000);
+
+        final long start = System.currentTimeMillis() - 60000;
+        source.insert(DB, COLLECTION, new BasicDBObject("_id", new ObjectId(new Date(start), 1, 0)));
+        source.insert(DB, COLLECTION, new BasicDBObject("_id", new ObjectId(new Date(start + 5000), 1, 1)));
+
+        final TailableCursorOptions options = new TailableCursorOptions("mongodb://127.0.0.1:27017", DB, COLLECTION);
+        options.setResumeField("_id");
+        options.setJmxEnabled(true);
+
+        final TailableCursor cursor = new TailableCursorImpl(options, source);
+        cursor.start();
+
+        try {
+            assertNotNull(cursor.pollDoc(1, TimeUnit.SECONDS));
+            while (cursor.getMetrics().getDocsRead() < 2) Thread.sleep(1);
+
+            // The second doc is buffered, so the consumer is five seconds behind the reader.
+            assertEquals(5000, cursor.getMetrics().getLagMillis());
+            assertEquals(5000L, ManagementFactory.getPlatformMBeanServer().getAttribute(metricsBean(), "LagMillis"));
+
+            assertNotNull(cursor.pollDoc(1, TimeUnit.SECONDS));
+            assertEquals(0, cursor.getMetrics().getLagMillis());
+        } finally { cursor.stop(); }
+
+        assertEquals(0, queries.get());
+    }
+
+    /**
+     * Returns the index of the first doc read with the start position. A doc with the
+     * next index is inserted once the cursor is running.
+     */
+    private int firstDoc(final ObjectId [] pIds, final TailableCursorStartPosition pPosition) throws Exception {
+        // The reader opens its cursor once it has found the start.
+        final CountDownLatch opened = new CountDownLatch(1);
+        final MemoryTailSource source = new MemoryTailSource() {
+            @Override
+            public TailSourceCursor open(   final TailableCursorOptions pOptions,
+                                            final DBObject pQuery,
+                                            final DBObject pFields,
+                                            final boolean pAwaitData)
+            {
+                final TailSourceCursor cursor = super.open(pOptions, pQuery, pFields, pAwaitData);
+                opened.countDown();
+                return cursor;
+            }
+        };
+        source.createCollection(DB, COLLECTION, 1000);
+        for (int idx=0; idx < pIds.length; idx++) source.insert(DB, COLLECTION, new BasicDBObject("_id", pIds[idx]).append("idx", idx));
+
+        _options.setStartPosition(pPosition);
+        _options.setNoDocSleepTime(10);
+        final TailableCursor cursor = new TailableCursorImpl(_options, source);
+        cursor.start();
+
+        try {
+            assertTrue(opened.await(5, TimeUnit.SECONDS));
+            source.insert(DB, COLLECTION, new BasicDBObject("_id", new ObjectId()).append("idx", pIds.length));
+
+            final DBObject doc = cursor.pollDoc(5, TimeUnit.SECONDS);
+            assertNotNull(doc);
+            return (Integer)doc.get("idx");
+        } finally { cursor.stop(); }
+    }
+
+    private ObjectName metricsBean() throws Exception {
+        final Set<ObjectName> names = ManagementFactory.getPlatformMBeanServer()
+        .queryNames(new ObjectName("com.deftlabs.cursor.mongo:type=TailableCursor,name=\"" + DB + "." + COLLECTION + "\",*"), null);
+        assertEquals(1, names.size());
+        return names.iterator().next();
+    }
+
+    private final TailableCursorOptions _options = new TailableCursorOptions("mongodb://127.0.0.1:27017", DB, COLLECTION);
+
+    private static final String DB = "test";
+    private static final String COLLECTION = "cursor";
 
     private static final Logger LOG = Logger.getLogger(TailableCursorUnitTests.class.getName());
 }